@@ -0,0 +1,514 @@
+package com.firebase.ui.database.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code SnapshotParser} for every class annotated with {@code FirebaseModel}. The
+ * generated parsers mirror the mapping rules of {@code DataSnapshot#getValue(Class)} without
+ * using reflection.
+ */
+@SupportedAnnotationTypes(FirebaseModelProcessor.FIREBASE_MODEL)
+public class FirebaseModelProcessor extends AbstractProcessor {
+    static final String FIREBASE_MODEL = "com.firebase.ui.database.FirebaseModel";
+
+    private static final String PROPERTY_NAME = "com.google.firebase.database.PropertyName";
+    private static final String EXCLUDE = "com.google.firebase.database.Exclude";
+    private static final String PARSER_SUFFIX = "_SnapshotParser";
+    private static final String INDENT = "    ";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                try {
+                    generateParser(checkModel(element));
+                } catch (ProcessingException e) {
+                    processingEnv.getMessager()
+                            .printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.mElement);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(
+                            Diagnostic.Kind.ERROR,
+                            "Unable to write snapshot parser: " + e.getMessage(),
+                            element);
+                }
+            }
+        }
+        return true;
+    }
+
+    private TypeElement checkModel(Element element) throws ProcessingException {
+        if (element.getKind() != ElementKind.CLASS) {
+            throw new ProcessingException(element, "@FirebaseModel can only be applied to classes");
+        }
+
+        TypeElement model = (TypeElement) element;
+        Set<Modifier> modifiers = model.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.PRIVATE)) {
+            throw new ProcessingException(
+                    model, "@FirebaseModel classes must be concrete and not private");
+        }
+        if (model.getNestingKind() == NestingKind.MEMBER
+                && !modifiers.contains(Modifier.STATIC)) {
+            throw new ProcessingException(
+                    model, "Nested @FirebaseModel classes must be static");
+        }
+        if (!model.getTypeParameters().isEmpty()) {
+            throw new ProcessingException(
+                    model, "@FirebaseModel classes can't have type parameters");
+        }
+
+        return model;
+    }
+
+    private void generateParser(TypeElement model) throws ProcessingException, IOException {
+        String packageName = getPackage(model).getQualifiedName().toString();
+        String parserName = getParserSimpleName(model);
+        String modelName = model.getQualifiedName().toString();
+
+        checkConstructor(model);
+        Map<String, String> nestedParsers = new LinkedHashMap<>();
+
+        StringBuilder body = new StringBuilder();
+        body.append(indent(2)).append("if (!snapshot.exists()) return null;\n");
+        body.append(indent(2)).append("SnapshotValues.checkIsModel(snapshot, ")
+                .append(modelName).append(".class);\n\n");
+        body.append(indent(2)).append(modelName).append(" model = new ")
+                .append(modelName).append("();\n");
+
+        Collection<Property> properties = findProperties(model).values();
+        if (!properties.isEmpty()) {
+            body.append(indent(2)).append("for (DataSnapshot child : snapshot.getChildren()) {\n");
+            body.append(indent(3)).append("switch (child.getKey()) {\n");
+            for (Property property : properties) {
+                String value = readExpression(property, nestedParsers);
+
+                body.append(indent(4)).append("case \"").append(escape(property.mName))
+                        .append("\":\n");
+                body.append(indent(5)).append(property.assignment("model", value))
+                        .append(";\n");
+                body.append(indent(5)).append("break;\n");
+            }
+            body.append(indent(4)).append("default:\n");
+            body.append(indent(5)).append("break;\n");
+            body.append(indent(3)).append("}\n");
+            body.append(indent(2)).append("}\n");
+        }
+        body.append(indent(2)).append("return model;\n");
+
+        StringBuilder source = new StringBuilder();
+        source.append("// Generated code from FirebaseUI Database. Do not modify!\n");
+        if (!packageName.isEmpty()) source.append("package ").append(packageName).append(";\n\n");
+        source.append("import com.firebase.ui.database.SnapshotParser;\n");
+        source.append("import com.firebase.ui.database.SnapshotValues;\n");
+        source.append("import com.google.firebase.database.DataSnapshot;\n\n");
+        source.append("public final class ").append(parserName)
+                .append(" implements SnapshotParser<").append(modelName).append("> {\n");
+        for (Map.Entry<String, String> parser : nestedParsers.entrySet()) {
+            source.append(indent(1)).append("private static final ").append(parser.getKey())
+                    .append(' ').append(parser.getValue()).append(" = new ")
+                    .append(parser.getKey()).append("();\n");
+        }
+        if (!nestedParsers.isEmpty()) source.append('\n');
+        source.append(indent(1)).append("@Override\n");
+        source.append(indent(1)).append("public ").append(modelName)
+                .append(" parseSnapshot(DataSnapshot snapshot) {\n");
+        source.append(body);
+        source.append(indent(1)).append("}\n");
+        source.append("}\n");
+
+        String qualifiedParserName =
+                packageName.isEmpty() ? parserName : packageName + "." + parserName;
+        Writer writer =
+                processingEnv.getFiler().createSourceFile(qualifiedParserName, model).openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Like {@code DataSnapshot#getValue(Class)}, models are created with their no-argument
+     * constructor. It must not be private since the generated parser calls it directly.
+     */
+    private void checkConstructor(TypeElement model) throws ProcessingException {
+        for (Element element : model.getEnclosedElements()) {
+            if (element.getKind() == ElementKind.CONSTRUCTOR
+                    && !element.getModifiers().contains(Modifier.PRIVATE)
+                    && ((ExecutableElement) element).getParameters().isEmpty()) {
+                return;
+            }
+        }
+
+        throw new ProcessingException(
+                model, "@FirebaseModel classes must have a non-private no-argument constructor");
+    }
+
+    /**
+     * Find the properties of the model the way {@code DataSnapshot#getValue(Class)} does: they are
+     * defined by public getters and public fields, including inherited ones, and set through any
+     * setter or field of the model or its superclasses with the same name. Setters take precedence
+     * over fields. Properties without a setter or field are read-only and skipped.
+     *
+     * @return the properties by name
+     * @throws ProcessingException if the mapping is ambiguous or a property's setter or field can't
+     *                             be accessed from the generated parser
+     */
+    private Map<String, Property> findProperties(TypeElement model) throws ProcessingException {
+        Elements elements = processingEnv.getElementUtils();
+
+        // The property names by lower case name, like getValue(Class) keeps them
+        Map<String, String> names = new LinkedHashMap<>();
+        for (Element member : elements.getAllMembers(model)) {
+            Set<Modifier> modifiers = member.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC)
+                    || modifiers.contains(Modifier.STATIC)
+                    || isDeclaredByObject(member)
+                    || hasAnnotation(member, EXCLUDE)) {
+                continue;
+            }
+
+            String name;
+            if (member.getKind() == ElementKind.FIELD) {
+                if (modifiers.contains(Modifier.TRANSIENT)) continue;
+                name = getPropertyName(member, member.getSimpleName().toString());
+            } else if (member.getKind() == ElementKind.METHOD
+                    && isGetter((ExecutableElement) member)) {
+                name = getPropertyName(member, serializedName(member.getSimpleName().toString()));
+            } else {
+                continue;
+            }
+
+            String existing = names.put(name.toLowerCase(Locale.US), name);
+            if (existing != null && !existing.equals(name)) {
+                throw new ProcessingException(member, "Found two getters or fields with "
+                        + "conflicting case sensitivity for property \"" + name + "\"");
+            }
+        }
+
+        Map<String, Property> setters = new LinkedHashMap<>();
+        Map<String, Property> fields = new LinkedHashMap<>();
+        TypeElement type = model;
+        while (type != null && !type.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (Element member : type.getEnclosedElements()) {
+                if (member.getKind() == ElementKind.METHOD
+                        && isSetter((ExecutableElement) member)) {
+                    String name = getPropertyName(
+                            member, serializedName(member.getSimpleName().toString()));
+                    String existingName = names.get(name.toLowerCase(Locale.US));
+                    if (existingName == null) continue;
+                    if (!existingName.equals(name)) {
+                        throw new ProcessingException(member, "Setter "
+                                + member.getSimpleName() + " doesn't match the case of property \""
+                                + existingName + "\"");
+                    }
+
+                    // Setters of subclasses come first and may override those of superclasses
+                    Property existing = setters.get(name);
+                    if (existing == null) {
+                        setters.put(name, new Property(name, Property.SETTER, member));
+                    } else if (!elements.overrides((ExecutableElement) existing.mMember,
+                                                   (ExecutableElement) member,
+                                                   (TypeElement) existing.mMember
+                                                           .getEnclosingElement())) {
+                        throw new ProcessingException(member, "Found conflicting setters for "
+                                + "property \"" + name + "\"");
+                    }
+                } else if (member.getKind() == ElementKind.FIELD
+                        && !member.getModifiers().contains(Modifier.STATIC)) {
+                    String name = getPropertyName(member, member.getSimpleName().toString());
+                    // Fields of subclasses hide those of superclasses
+                    if (names.containsKey(name.toLowerCase(Locale.US))
+                            && !fields.containsKey(name)) {
+                        fields.put(name, new Property(name, Property.FIELD, member));
+                    }
+                }
+            }
+
+            TypeMirror superclass = type.getSuperclass();
+            type = superclass.getKind() == TypeKind.DECLARED
+                    ? (TypeElement) ((DeclaredType) superclass).asElement()
+                    : null;
+        }
+
+        Map<String, Property> properties = new LinkedHashMap<>(fields);
+        properties.putAll(setters);
+        for (Property property : properties.values()) {
+            checkAccessible(model, property);
+        }
+        return properties;
+    }
+
+    /**
+     * The generated parser lives in the model's package and sets properties directly, so it can't
+     * reach private members, non-public members of other packages or final fields.
+     */
+    private static void checkAccessible(TypeElement model, Property property)
+            throws ProcessingException {
+        Element member = property.mMember;
+        String description = (property.mKind == Property.SETTER ? "setter " : "field ")
+                + member.getSimpleName();
+        Set<Modifier> modifiers = member.getModifiers();
+
+        if (property.mKind == Property.FIELD && modifiers.contains(Modifier.FINAL)) {
+            throw new ProcessingException(member, "Property \"" + property.mName
+                    + "\" can't be set through final " + description
+                    + ". Remove the final modifier or add a setter.");
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) return;
+        if (modifiers.contains(Modifier.PRIVATE)
+                || !getPackage(member).equals(getPackage(model))) {
+            throw new ProcessingException(member, "Property \"" + property.mName
+                    + "\" is set through " + description + ", which the generated parser can't "
+                    + "access. Make it public or package-private, or add such a setter.");
+        }
+    }
+
+    /**
+     * Mirrors which methods {@code DataSnapshot#getValue(Class)} considers getters. Only public
+     * methods are passed in.
+     */
+    private static boolean isGetter(ExecutableElement method) {
+        String name = method.getSimpleName().toString();
+        return (name.startsWith("get") || name.startsWith("is"))
+                && method.getReturnType().getKind() != TypeKind.VOID
+                && method.getParameters().isEmpty();
+    }
+
+    /**
+     * Mirrors which methods {@code DataSnapshot#getValue(Class)} considers setters, whatever their
+     * visibility.
+     */
+    private static boolean isSetter(ExecutableElement method) {
+        return method.getSimpleName().toString().startsWith("set")
+                && !method.getModifiers().contains(Modifier.STATIC)
+                && method.getReturnType().getKind() == TypeKind.VOID
+                && method.getParameters().size() == 1
+                && !hasAnnotation(method, EXCLUDE);
+    }
+
+    private static boolean isDeclaredByObject(Element member) {
+        return ((TypeElement) member.getEnclosingElement())
+                .getQualifiedName()
+                .contentEquals("java.lang.Object");
+    }
+
+    private String readExpression(Property property, Map<String, String> nestedParsers)
+            throws ProcessingException {
+        TypeMirror type = property.getType();
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "SnapshotValues.toBoolean(child.getValue())";
+            case INT:
+                return "SnapshotValues.toInteger(child.getValue())";
+            case LONG:
+                return "SnapshotValues.toLong(child.getValue())";
+            case DOUBLE:
+                return "SnapshotValues.toDouble(child.getValue())";
+            case FLOAT:
+                return "SnapshotValues.toFloat(child.getValue())";
+            case DECLARED:
+                break;
+            default:
+                throw new ProcessingException(property.getTarget(), "Unsupported type " + type
+                        + " for property \"" + property.mName + "\"");
+        }
+
+        DeclaredType declared = (DeclaredType) type;
+        TypeElement element = (TypeElement) declared.asElement();
+        String name = element.getQualifiedName().toString();
+        switch (name) {
+            case "java.lang.String":
+                return "SnapshotValues.toString(child.getValue())";
+            case "java.lang.Boolean":
+                return "SnapshotValues.toBoolean(child.getValue())";
+            case "java.lang.Integer":
+                return "SnapshotValues.toInteger(child.getValue())";
+            case "java.lang.Long":
+                return "SnapshotValues.toLong(child.getValue())";
+            case "java.lang.Double":
+                return "SnapshotValues.toDouble(child.getValue())";
+            case "java.lang.Float":
+                return "SnapshotValues.toFloat(child.getValue())";
+            case "java.lang.Object":
+                return "child.getValue()";
+            default:
+                break;
+        }
+
+        if (element.getKind() == ElementKind.ENUM) {
+            return "SnapshotValues.toEnum(child.getValue(), " + name + ".class)";
+        } else if (!declared.getTypeArguments().isEmpty()) {
+            return "child.getValue(new com.google.firebase.database.GenericTypeIndicator<"
+                    + type + ">() {})";
+        } else if (hasAnnotation(element, FIREBASE_MODEL)) {
+            String parser = getPackage(element).getQualifiedName() + "."
+                    + getParserSimpleName(element);
+            if (parser.startsWith(".")) parser = parser.substring(1);
+            if (!nestedParsers.containsKey(parser)) {
+                nestedParsers.put(parser, "PARSER_" + nestedParsers.size());
+            }
+            return nestedParsers.get(parser) + ".parseSnapshot(child)";
+        } else {
+            // Not something we know how to read, fall back to reflection for this property only
+            return "child.getValue(" + name + ".class)";
+        }
+    }
+
+    private static String getPropertyName(Element element, String defaultName) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (!isAnnotation(annotation, PROPERTY_NAME)) continue;
+
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : annotation.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value")) {
+                    return (String) entry.getValue().getValue();
+                }
+            }
+        }
+        return defaultName;
+    }
+
+    /**
+     * Mirrors how {@code DataSnapshot#getValue(Class)} derives property names from getters and
+     * setters: the prefix is dropped and leading upper case characters are lower cased.
+     */
+    private static String serializedName(String methodName) {
+        String prefix = methodName.startsWith("is") ? "is" : "set";
+        if (methodName.startsWith("get")) prefix = "get";
+
+        char[] chars = methodName.substring(prefix.length()).toCharArray();
+        for (int i = 0; i < chars.length && Character.isUpperCase(chars[i]); i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static boolean hasAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (isAnnotation(annotation, annotationName)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isAnnotation(AnnotationMirror annotation, String annotationName) {
+        TypeElement type = (TypeElement) annotation.getAnnotationType().asElement();
+        return type.getQualifiedName().contentEquals(annotationName);
+    }
+
+    private static PackageElement getPackage(Element element) {
+        while (element.getKind() != ElementKind.PACKAGE) {
+            element = element.getEnclosingElement();
+        }
+        return (PackageElement) element;
+    }
+
+    /**
+     * @return the simple name of the parser generated for the model, e.g. {@code
+     * Outer_Inner_SnapshotParser}
+     */
+    private static String getParserSimpleName(TypeElement model) {
+        String name = model.getSimpleName().toString();
+        Element enclosing = model.getEnclosingElement();
+        while (enclosing.getKind() != ElementKind.PACKAGE) {
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name + PARSER_SUFFIX;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String indent(int level) {
+        StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < level; i++) {
+            indent.append(INDENT);
+        }
+        return indent.toString();
+    }
+
+    /**
+     * A child of the snapshot to be read into the model.
+     */
+    private static final class Property {
+        static final int SETTER = 1;
+        static final int FIELD = 2;
+
+        final String mName;
+        final int mKind;
+        /**
+         * The setter or field the property is set through.
+         */
+        final Element mMember;
+
+        Property(String name, int kind, Element member) {
+            mName = name;
+            mKind = kind;
+            mMember = member;
+        }
+
+        /**
+         * @return the field or setter parameter the property is read into, to report errors on
+         */
+        Element getTarget() {
+            return mKind == SETTER
+                    ? ((ExecutableElement) mMember).getParameters().get(0)
+                    : mMember;
+        }
+
+        TypeMirror getType() {
+            return getTarget().asType();
+        }
+
+        String assignment(String target, String value) {
+            if (mKind == SETTER) {
+                return target + "." + mMember.getSimpleName() + "(" + value + ")";
+            } else {
+                return target + "." + mMember.getSimpleName() + " = " + value;
+            }
+        }
+    }
+
+    private static final class ProcessingException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final transient Element mElement;
+
+        ProcessingException(Element element, String message) {
+            super(message);
+            mElement = element;
+        }
+    }
+}
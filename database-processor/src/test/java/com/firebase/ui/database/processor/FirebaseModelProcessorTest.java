@@ -0,0 +1,290 @@
+package com.firebase.ui.database.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the processor on sample models and checks the generated parsers. Generated sources aren't
+ * compiled since they depend on the Android library, so the annotations are declared here.
+ */
+public class FirebaseModelProcessorTest {
+    private static final String[][] ANNOTATIONS = {
+            {"com.firebase.ui.database.FirebaseModel",
+                    "package com.firebase.ui.database;\n"
+                            + "public @interface FirebaseModel {}"},
+            {"com.google.firebase.database.PropertyName",
+                    "package com.google.firebase.database;\n"
+                            + "public @interface PropertyName { String value(); }"},
+            {"com.google.firebase.database.Exclude",
+                    "package com.google.firebase.database;\n"
+                            + "public @interface Exclude {}"}
+    };
+
+    private File mOutput;
+    private final DiagnosticCollector<JavaFileObject> mDiagnostics = new DiagnosticCollector<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mOutput = Files.createTempDirectory("processor").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(mOutput);
+    }
+
+    @Test
+    public void testGetterDefinedPropertiesUseNonPublicMembers() throws Exception {
+        String parser = process("test.Chat",
+                                "package test;\n"
+                                        + "@com.firebase.ui.database.FirebaseModel\n"
+                                        + "public class Chat {\n"
+                                        + "    String text;\n"
+                                        + "    int count;\n"
+                                        + "    public String name;\n"
+                                        + "    public String getText() { return text; }\n"
+                                        + "    void setText(String text) { this.text = text; }\n"
+                                        + "    public int getCount() { return count; }\n"
+                                        + "}\n");
+
+        assertTrue(parser, parser.contains("case \"text\":"));
+        assertTrue(parser, parser.contains("model.setText(SnapshotValues.toString("));
+        assertTrue(parser, parser.contains("case \"count\":"));
+        assertTrue(parser, parser.contains("model.count = SnapshotValues.toInteger("));
+        assertTrue(parser, parser.contains("model.name = SnapshotValues.toString("));
+    }
+
+    @Test
+    public void testPrivateFieldFails() throws Exception {
+        process("test.Chat",
+                "package test;\n"
+                        + "@com.firebase.ui.database.FirebaseModel\n"
+                        + "public class Chat {\n"
+                        + "    private String text;\n"
+                        + "    public String getText() { return text; }\n"
+                        + "}\n");
+
+        assertError("Property \"text\" is set through field text");
+    }
+
+    @Test
+    public void testPrivateSetterFails() throws Exception {
+        process("test.Chat",
+                "package test;\n"
+                        + "@com.firebase.ui.database.FirebaseModel\n"
+                        + "public class Chat {\n"
+                        + "    public String getText() { return null; }\n"
+                        + "    private void setText(String text) {}\n"
+                        + "}\n");
+
+        assertError("Property \"text\" is set through setter setText");
+    }
+
+    @Test
+    public void testMembersWithoutPublicGetterOrFieldAreIgnored() throws Exception {
+        String parser = process("test.Chat",
+                                "package test;\n"
+                                        + "@com.firebase.ui.database.FirebaseModel\n"
+                                        + "public class Chat {\n"
+                                        + "    String text;\n"
+                                        + "    public void setName(String name) {}\n"
+                                        + "}\n");
+
+        assertFalse(parser, parser.contains("case "));
+    }
+
+    @Test
+    public void testInheritedSetterAndSubclassField() throws Exception {
+        String parser = process("test.Chat",
+                                "package test;\n"
+                                        + "class Message {\n"
+                                        + "    String author;\n"
+                                        + "    public String getTitle() { return null; }\n"
+                                        + "    void setTitle(String title) {}\n"
+                                        + "    public String getAuthor() { return author; }\n"
+                                        + "}\n"
+                                        + "@com.firebase.ui.database.FirebaseModel\n"
+                                        + "public class Chat extends Message {\n"
+                                        + "    String author;\n"
+                                        + "}\n");
+
+        assertTrue(parser, parser.contains("model.setTitle("));
+        // The subclass field hides the inherited one
+        assertEquals(1, count(parser, "model.author = "));
+    }
+
+    @Test
+    public void testSetterTakesPrecedenceOverField() throws Exception {
+        String parser = process("test.Chat",
+                                "package test;\n"
+                                        + "@com.firebase.ui.database.FirebaseModel\n"
+                                        + "public class Chat {\n"
+                                        + "    public String text;\n"
+                                        + "    public void setText(String text) {}\n"
+                                        + "}\n");
+
+        assertTrue(parser, parser.contains("model.setText("));
+        assertFalse(parser, parser.contains("model.text = "));
+    }
+
+    @Test
+    public void testPropertyNameAndExclude() throws Exception {
+        String parser = process("test.Chat",
+                                "package test;\n"
+                                        + "import com.google.firebase.database.Exclude;\n"
+                                        + "import com.google.firebase.database.PropertyName;\n"
+                                        + "@com.firebase.ui.database.FirebaseModel\n"
+                                        + "public class Chat {\n"
+                                        + "    @PropertyName(\"msg\") public String message;\n"
+                                        + "    @Exclude public String local;\n"
+                                        + "    public transient String cached;\n"
+                                        + "    public static String shared;\n"
+                                        + "}\n");
+
+        assertTrue(parser, parser.contains("case \"msg\":"));
+        assertTrue(parser, parser.contains("model.message = "));
+        assertFalse(parser, parser.contains("local"));
+        assertFalse(parser, parser.contains("cached"));
+        assertFalse(parser, parser.contains("shared"));
+    }
+
+    @Test
+    public void testConflictingCaseFails() throws Exception {
+        process("test.Chat",
+                "package test;\n"
+                        + "@com.firebase.ui.database.FirebaseModel\n"
+                        + "public class Chat {\n"
+                        + "    public String getUrl() { return null; }\n"
+                        + "    public String URL;\n"
+                        + "}\n");
+
+        assertError("conflicting case sensitivity");
+    }
+
+    @Test
+    public void testUnsupportedTypeFailsOnField() throws Exception {
+        process("test.Chat",
+                "package test;\n"
+                        + "@com.firebase.ui.database.FirebaseModel\n"
+                        + "public class Chat {\n"
+                        + "    public char initial;\n"
+                        + "}\n");
+
+        Diagnostic<? extends JavaFileObject> error = assertError("Unsupported type char");
+        assertEquals(4, error.getLineNumber());
+    }
+
+    @Test
+    public void testMissingConstructorFails() throws Exception {
+        process("test.Chat",
+                "package test;\n"
+                        + "@com.firebase.ui.database.FirebaseModel\n"
+                        + "public class Chat {\n"
+                        + "    public Chat(String text) {}\n"
+                        + "}\n");
+
+        assertError("non-private no-argument constructor");
+    }
+
+    /**
+     * @return the source of the parser generated for the model, or an empty string if there is
+     * none
+     */
+    private String process(String model, String source) throws IOException {
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (String[] annotation : ANNOTATIONS) {
+            sources.add(new Source(annotation[0], annotation[1]));
+        }
+        sources.add(new Source(model, source));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager files =
+                compiler.getStandardFileManager(mDiagnostics, Locale.US, Charset.forName("UTF-8"));
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null,
+                    files,
+                    mDiagnostics,
+                    Arrays.asList("-proc:only", "-s", mOutput.getPath()),
+                    null,
+                    sources);
+            task.setProcessors(Collections.singletonList(new FirebaseModelProcessor()));
+            task.call();
+        } finally {
+            files.close();
+        }
+
+        File parser = new File(mOutput, model.replace('.', File.separatorChar)
+                + "_SnapshotParser.java");
+        if (!parser.exists()) return "";
+        return new String(Files.readAllBytes(parser.toPath()), Charset.forName("UTF-8"));
+    }
+
+    private Diagnostic<? extends JavaFileObject> assertError(String message) {
+        for (Diagnostic<? extends JavaFileObject> diagnostic : mDiagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR
+                    && diagnostic.getMessage(Locale.US).contains(message)) {
+                return diagnostic;
+            }
+        }
+        throw new AssertionError("No error containing \"" + message + "\" in "
+                + mDiagnostics.getDiagnostics());
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i != -1; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String mSource;
+
+        Source(String name, String source) {
+            super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension),
+                  Kind.SOURCE);
+            mSource = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mSource;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ArraySnapshotStorageTest {
+    private static final int KEYS = 200;
+    private static final int OPERATIONS = 5000;
+
+    private DatabaseReference mRef;
+    private final List<DataSnapshot> mSnapshots = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mRef = FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()))
+                .getReference()
+                .child("arraysnapshotstorage");
+
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            values.put("key" + i, i);
+        }
+        mRef.setValue(values);
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        mRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                for (DataSnapshot child : snapshot.getChildren()) {
+                    mSnapshots.add(child);
+                }
+                loaded.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                throw new IllegalStateException(error.toException());
+            }
+        });
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        assertEquals(KEYS, mSnapshots.size());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testKeyIndexMatchesArrayList() throws Exception {
+        Random random = new Random(42);
+        List<DataSnapshot> unused = new ArrayList<>(mSnapshots);
+        List<DataSnapshot> expected = new ArrayList<>();
+        ArraySnapshotStorage storage = new ArraySnapshotStorage();
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (!unused.isEmpty() && (random.nextBoolean() || expected.isEmpty())) {
+                DataSnapshot snapshot = unused.remove(random.nextInt(unused.size()));
+                int index = random.nextInt(expected.size() + 1);
+                expected.add(index, snapshot);
+                storage.add(index, snapshot);
+            } else {
+                int index = random.nextInt(expected.size());
+                DataSnapshot snapshot = expected.remove(index);
+                assertEquals(snapshot, storage.remove(index));
+                assertEquals(-1, storage.getIndexForKey(snapshot.getKey()));
+                unused.add(snapshot);
+            }
+
+            assertKeyIndices(expected, storage);
+        }
+    }
+
+    @Test
+    public void testInsertsAtFrontKeepKeyIndex() throws Exception {
+        List<DataSnapshot> expected = new ArrayList<>();
+        ArraySnapshotStorage storage = new ArraySnapshotStorage();
+
+        for (DataSnapshot snapshot : mSnapshots) {
+            expected.add(0, snapshot);
+            storage.add(0, snapshot);
+            assertKeyIndices(expected, storage);
+        }
+    }
+
+    @Test
+    public void testMiddleChangesKeepKeyIndex() throws Exception {
+        List<DataSnapshot> expected = new ArrayList<>();
+        ArraySnapshotStorage storage = new ArraySnapshotStorage();
+
+        for (DataSnapshot snapshot : mSnapshots) {
+            int index = expected.size() / 2;
+            expected.add(index, snapshot);
+            storage.add(index, snapshot);
+            // Look keys up on both sides of the change, as child events do
+            if (index > 0) {
+                assertEquals(index - 1, storage.getIndexForKey(expected.get(index - 1).getKey()));
+            }
+            assertEquals(expected.size() - 1,
+                         storage.getIndexForKey(expected.get(expected.size() - 1).getKey()));
+        }
+        while (!expected.isEmpty()) {
+            int index = expected.size() / 2;
+            assertEquals(expected.remove(index), storage.remove(index));
+            assertKeyIndices(expected, storage);
+        }
+    }
+
+    @Test
+    public void testImmutableListIsNotAffectedByChanges() throws Exception {
+        ArraySnapshotStorage storage = new ArraySnapshotStorage();
+        for (int i = 0; i < 10; i++) {
+            storage.add(i, mSnapshots.get(i));
+        }
+
+        List<DataSnapshot> version = storage.toImmutableList();
+        List<DataSnapshot> expected = new ArrayList<>(version);
+        storage.add(0, mSnapshots.get(10));
+        storage.remove(5);
+        storage.set(3, mSnapshots.get(11));
+        assertEquals(expected, version);
+
+        List<DataSnapshot> cleared = storage.toImmutableList();
+        expected = new ArrayList<>(cleared);
+        storage.clear();
+        assertEquals(expected, cleared);
+    }
+
+    private static void assertKeyIndices(List<DataSnapshot> expected,
+                                         ArraySnapshotStorage storage) {
+        assertEquals(expected, storage);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, storage.getIndexForKey(expected.get(i).getKey()));
+        }
+    }
+}
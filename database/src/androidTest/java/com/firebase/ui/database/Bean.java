@@ -1,5 +1,6 @@
 package com.firebase.ui.database;
 
+@FirebaseModel
 public class Bean {
     private int mNumber;
     private String mText;
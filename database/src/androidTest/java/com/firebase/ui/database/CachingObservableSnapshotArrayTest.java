@@ -0,0 +1,211 @@
+package com.firebase.ui.database;
+
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.setAndGetChildren;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+@RunWith(AndroidJUnit4.class)
+public class CachingObservableSnapshotArrayTest {
+    private static final int CHILDREN = 5;
+
+    private DatabaseReference mRef;
+    private List<DataSnapshot> mChildren;
+    private List<DataSnapshot> mChangedChildren;
+
+    private final List<Thread> mParseThreads = new ArrayList<>();
+    private final QueuedExecutor mExecutor = new QueuedExecutor();
+    private ParsingArray mArray;
+
+    @Before
+    public void setUp() throws Exception {
+        mRef = FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()))
+                .getReference()
+                .child("cachingobservablesnapshotarray");
+        mChildren = setAndGetChildren(mRef, getValues(0));
+        mChangedChildren = setAndGetChildren(mRef, getValues(100));
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mArray = new ParsingArray(new SnapshotParser<Integer>() {
+                    @Override
+                    public Integer parseSnapshot(DataSnapshot snapshot) {
+                        synchronized (mParseThreads) {
+                            mParseThreads.add(Thread.currentThread());
+                        }
+                        return snapshot.getValue(Integer.class);
+                    }
+                });
+                mArray.setParseExecutor(mExecutor);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testParsesOffTheMainThread() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CHILDREN; i++) {
+                    mArray.addChild(i, mChildren.get(i));
+                }
+            }
+        });
+        assertEquals(CHILDREN, mExecutor.size());
+        runInBackground(mExecutor.takeAll());
+
+        assertEquals(CHILDREN, mParseThreads.size());
+        for (Thread thread : mParseThreads) {
+            assertNotSame(Looper.getMainLooper().getThread(), thread);
+        }
+    }
+
+    @Test
+    public void testResultsArePublishedInOrder() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CHILDREN; i++) {
+                    mArray.addChild(i, mChildren.get(i));
+                }
+            }
+        });
+        runInBackground(mExecutor.takeAll());
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Every object was published to the cache, none is parsed again on the main thread
+                for (int i = 0; i < CHILDREN; i++) {
+                    assertEquals(i, (int) mArray.getObject(i));
+                }
+                assertEquals(CHILDREN, mParseThreads.size());
+            }
+        });
+    }
+
+    @Test
+    public void testStaleParseIsDropped() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mArray.addChild(0, mChildren.get(0));
+                mArray.changeChild(0, mChangedChildren.get(0));
+            }
+        });
+
+        // The parse of the old snapshot finishes last, after the parse of the new one
+        List<Runnable> parses = mExecutor.takeAll();
+        assertEquals(2, parses.size());
+        runInBackground(parses.subList(1, 2));
+        runInBackground(parses.subList(0, 1));
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(100, (int) mArray.getObject(0));
+                assertEquals(2, mParseThreads.size());
+            }
+        });
+    }
+
+    /**
+     * Run the given tasks one after the other on a background thread, then wait until the results
+     * they posted to the main thread have been handled.
+     */
+    private static void runInBackground(final List<Runnable> tasks) throws InterruptedException {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Runnable task : tasks) {
+                    task.run();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private static Map<String, Object> getValues(int offset) {
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < CHILDREN; i++) {
+            values.put("key" + i, offset + i);
+        }
+        return values;
+    }
+
+    /**
+     * Holds the tasks it is given until the test runs them.
+     */
+    private static final class QueuedExecutor implements Executor {
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        public synchronized int size() {
+            return mTasks.size();
+        }
+
+        public synchronized List<Runnable> takeAll() {
+            List<Runnable> tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+            return tasks;
+        }
+    }
+
+    private static final class ParsingArray extends CachingObservableSnapshotArray<Integer> {
+        private final List<DataSnapshot> mSnapshots = new ArrayList<>();
+
+        public ParsingArray(SnapshotParser<Integer> parser) {
+            super(parser);
+        }
+
+        @Override
+        protected List<DataSnapshot> getSnapshots() {
+            return mSnapshots;
+        }
+
+        public void addChild(int index, DataSnapshot snapshot) {
+            addData(index, snapshot);
+            notifyChangeEventListeners(ChangeEventListener.EventType.ADDED, snapshot, index);
+        }
+
+        public void changeChild(int index, DataSnapshot snapshot) {
+            updateData(index, snapshot);
+            notifyChangeEventListeners(ChangeEventListener.EventType.CHANGED, snapshot, index);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.firebase.ui.database;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.isValuesEqual;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebaseArrayDiskCacheTest {
+    private static final int INITIAL_SIZE = 3;
+    private static final int TIMEOUT = 10000;
+
+    private static final ObjectCodec<Integer> CODEC = new ObjectCodec<Integer>() {
+        @Override
+        public void write(@NonNull Integer object, @NonNull DataOutput out) throws IOException {
+            out.writeInt(object);
+        }
+
+        @NonNull
+        @Override
+        public Integer read(@NonNull DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    private DatabaseReference mRef;
+    private SnapshotDiskCache<Integer> mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getContext();
+        mRef = FirebaseDatabase.getInstance(getAppInstance(context))
+                .getReference()
+                .child("firebasearray");
+        mCache = new SnapshotDiskCache<>(
+                new File(context.getCacheDir(), "firebasearray-disk-cache-test"), CODEC);
+        mCache.clear();
+
+        mRef.removeValue();
+        for (int i = 1; i <= INITIAL_SIZE; i++) {
+            mRef.push().setValue(i, i);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCache.clear();
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testLoadedDataIsSaved() throws Exception {
+        final FirebaseArray<Integer> array = new FirebaseArray<>(mRef, Integer.class);
+        array.setDiskCache(mCache);
+        ChangeEventListener listener = runAndWaitUntil(array, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1, 2, 3});
+            }
+        });
+        // Saves right away instead of waiting for the save interval
+        array.removeChangeEventListener(listener);
+
+        waitForCache(Arrays.asList(1, 2, 3));
+    }
+
+    @Test
+    public void testPlaceholdersAreReconciled() throws Exception {
+        final String changedKey = save()[1];
+        mRef.child(changedKey).setValue(20, 2);
+        mRef.push().setValue(4, 4);
+
+        final FirebaseArray<Integer> array = new FirebaseArray<>(mRef, Integer.class);
+        array.setDiskCache(mCache);
+        final RecordingListener listener = new RecordingListener();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                array.addChangeEventListener(listener);
+                assertEquals(INITIAL_SIZE, array.size());
+                for (int i = 0; i < INITIAL_SIZE; i++) {
+                    assertTrue(array.isPlaceholder(i));
+                    assertNull(array.get(i));
+                    assertEquals(Integer.valueOf(i + 1), array.getObject(i));
+                }
+                assertEquals(changedKey, array.getKey(1));
+                listener.mEvents.clear();
+            }
+        });
+
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1, 20, 3, 4});
+            }
+        });
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(array.isPlaceholder(0));
+                // The unchanged rows keep their views
+                assertEquals(Arrays.asList("CHANGED 1", "ADDED 3"), listener.mEvents);
+                array.removeChangeEventListener(listener);
+            }
+        });
+    }
+
+    @Test
+    public void testOtherListenerDropsPlaceholders() throws Exception {
+        save();
+
+        final FirebaseArray<Integer> array = new FirebaseArray<>(mRef, Integer.class);
+        array.setDiskCache(mCache);
+        final RecordingListener placeholderListener = new RecordingListener();
+        final ChangeEventListener listener = new ChangeEventListener() {
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+                assertNotNull(snapshot);
+            }
+
+            @Override
+            public void onDataChanged() {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        };
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                array.addChangeEventListener(placeholderListener);
+                assertEquals(INITIAL_SIZE, array.size());
+
+                array.addChangeEventListener(listener);
+                for (int i = 0; i < array.size(); i++) {
+                    assertFalse(array.isPlaceholder(i));
+                    assertNotNull(array.get(i));
+                }
+                // The placeholders were removed and the rows loaded so far inserted
+                assertEquals(2 * INITIAL_SIZE + array.size(), placeholderListener.mEvents.size());
+            }
+        });
+
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1, 2, 3});
+            }
+        });
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                array.removeChangeEventListener(placeholderListener);
+                array.removeChangeEventListener(listener);
+            }
+        });
+    }
+
+    @Test
+    public void testSetQueryStopsSaving() throws Exception {
+        final FirebaseArray<Integer> array = new FirebaseArray<>(mRef, Integer.class);
+        array.setDiskCache(mCache);
+        ChangeEventListener listener = runAndWaitUntil(array, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1, 2, 3});
+            }
+        });
+
+        array.setQuery(mRef.limitToFirst(1));
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1});
+            }
+        });
+        array.removeChangeEventListener(listener);
+
+        // The cache was keyed by the original query, so it must not hold the new query's rows
+        waitForCache(Arrays.asList(1, 2, 3));
+        Thread.sleep(1000);
+        assertEquals(Arrays.asList(1, 2, 3), readCache());
+    }
+
+    /**
+     * Load the data with a disk cached array and wait until it is saved.
+     *
+     * @return the keys of the loaded rows
+     */
+    private String[] save() throws Exception {
+        final FirebaseArray<Integer> array = new FirebaseArray<>(mRef, Integer.class);
+        array.setDiskCache(mCache);
+        ChangeEventListener listener = runAndWaitUntil(array, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1, 2, 3});
+            }
+        });
+        String[] keys = new String[array.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = array.getKey(i);
+        }
+        array.removeChangeEventListener(listener);
+
+        waitForCache(Arrays.asList(1, 2, 3));
+        return keys;
+    }
+
+    private List<Integer> readCache() {
+        List<Integer> objects = new ArrayList<>();
+        for (SnapshotDiskCache.Row<Integer> row : mCache.read().values()) {
+            objects.add(row.mObject);
+        }
+        return objects;
+    }
+
+    private void waitForCache(final List<Integer> expected) throws Exception {
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return readCache().equals(expected);
+            }
+        });
+    }
+
+    private static void waitUntil(Callable<Boolean> done) throws Exception {
+        long startedAt = System.currentTimeMillis();
+        while (System.currentTimeMillis() - startedAt < TIMEOUT) {
+            if (done.call()) return;
+            Thread.sleep(100);
+        }
+        fail("Timed out");
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    /**
+     * Records the type and index of every event, whether or not it has a snapshot.
+     */
+    private static class RecordingListener implements PlaceholderEventListener {
+        private final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onChildChanged(EventType type, DataSnapshot snapshot, int index, int oldIndex) {
+            mEvents.add(type + " " + index);
+        }
+
+        @Override
+        public void onDataChanged() {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            throw new IllegalStateException(error.toException());
+        }
+    }
+}
@@ -18,6 +18,8 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
 import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 
@@ -26,7 +28,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.firebase.ui.database.TestUtils.getAppInstance;
 import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
@@ -163,4 +168,39 @@ public class FirebaseArrayOfObjectsTest {
             }
         });
     }
+
+    @Test
+    public void testChangedChildrenAreReported() throws Exception {
+        final AtomicReference<Set<String>> changedChildren = new AtomicReference<>();
+        ChangeEventListener listener = mArray.addChangeEventListener(new ChangeEventListener() {
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+                if (type == EventType.CHANGED) changedChildren.set(mArray.getChangedChildren());
+            }
+
+            @Override
+            public void onDataChanged() {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        });
+
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mArray.get(0).getRef().child("text").setValue("Changed");
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return Collections.singleton("text").equals(changedChildren.get());
+            }
+        });
+        mArray.removeChangeEventListener(listener);
+    }
 }
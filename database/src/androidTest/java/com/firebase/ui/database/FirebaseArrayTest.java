@@ -14,10 +14,14 @@
 
 package com.firebase.ui.database;
 
+import android.os.Looper;
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
 import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 
@@ -26,11 +30,24 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.firebase.ui.database.TestUtils.getAppInstance;
 import static com.firebase.ui.database.TestUtils.isValuesEqual;
 import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class FirebaseArrayTest {
@@ -141,4 +158,296 @@ public class FirebaseArrayTest {
             }
         });
     }
+
+    @Test
+    public void testSetQueryReconcilesRows() throws Exception {
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mRef.push().setValue(4, 0.5);
+                mRef.push().setValue(5, 0.25);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == 5;
+            }
+        });
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mArray.setQuery(mRef.limitToFirst(4));
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(mArray, new int[]{1, 2, 3, 4});
+            }
+        });
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        ChangeEventListener recorder = mArray.addChangeEventListener(new ChangeEventListener() {
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+                events.add(type + " " + snapshot.getValue() + " " + index + " " + oldIndex);
+            }
+
+            @Override
+            public void onDataChanged() {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        });
+        // Drop the ADDED events replayed for the existing rows
+        events.clear();
+
+        // 3 is dropped, 5 is new, 4 moves before 1 and 2, and 1 and 2 are left alone
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mArray.setQuery(mRef.orderByPriority().endAt(2));
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(mArray, new int[]{5, 4, 1, 2});
+            }
+        });
+        mArray.removeChangeEventListener(recorder);
+
+        assertEquals(Arrays.asList("REMOVED 3 2 -1", "ADDED 5 0 -1", "MOVED 4 1 3"), events);
+    }
+
+    @Test
+    public void testInitialLoadIsOneRange() throws Exception {
+        final FirebaseArray<Integer> array = new FirebaseArray<>(mRef, Integer.class);
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch loaded = new CountDownLatch(1);
+        ChangeEventListener listener = array.addChangeEventListener(new RangeChangeEventListener() {
+            @Override
+            public void onRangeChanged(RangeEventType type, int index, int count) {
+                events.add(type + " " + index + " " + count);
+            }
+
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+                events.add(type + " " + index);
+            }
+
+            @Override
+            public void onDataChanged() {
+                loaded.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        });
+
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("RANGE_INSERTED 0 " + INITIAL_SIZE), events);
+        assertTrue(isValuesEqual(array, new int[]{1, 2, 3}));
+        array.removeChangeEventListener(listener);
+    }
+
+    @Test
+    public void testEquivalentChangesAreDropped() throws Exception {
+        mArray.setDisplayEquivalence(new DisplayEquivalence<Integer>() {
+            @Override
+            public boolean isEquivalent(@NonNull Integer oldObject, @NonNull Integer newObject) {
+                return oldObject % 10 == newObject % 10;
+            }
+        });
+        final AtomicInteger changes = new AtomicInteger();
+        ChangeEventListener counter = mArray.addChangeEventListener(new ChangeEventListener() {
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+                if (type == EventType.CHANGED) changes.incrementAndGet();
+            }
+
+            @Override
+            public void onDataChanged() {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        });
+
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mArray.get(0).getRef().setValue(11, 1);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.getObject(0).equals(11);
+            }
+        });
+        assertEquals(0, changes.get());
+        mArray.removeChangeEventListener(counter);
+    }
+
+    @Test
+    public void testChangesAreConflated() throws Exception {
+        mArray.setChangeConflationMillis(1000);
+        final AtomicInteger changes = new AtomicInteger();
+        ChangeEventListener counter = mArray.addChangeEventListener(new ChangeEventListener() {
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+                if (type == EventType.CHANGED) changes.incrementAndGet();
+            }
+
+            @Override
+            public void onDataChanged() {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        });
+
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                DatabaseReference ref = mArray.get(0).getRef();
+                for (int i = 10; i <= 15; i++) {
+                    ref.setValue(i, 1);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return changes.get() > 0 && mArray.getObject(0).equals(15);
+            }
+        });
+        assertTrue(changes.get() <= 2);
+        mArray.removeChangeEventListener(counter);
+    }
+
+    @Test
+    public void testFrameBudgetKeepsOrder() throws Exception {
+        final FirebaseArray<Integer> array = new FirebaseArray<>(mRef, Integer.class);
+        array.setFrameBudgetMillis(4);
+        ChangeEventListener listener = runAndWaitUntil(array, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1, 2, 3});
+            }
+        });
+        array.removeChangeEventListener(listener);
+    }
+
+    @Test
+    public void testExecutorListenerRunsOffMainThread() throws Exception {
+        final CountDownLatch added = new CountDownLatch(INITIAL_SIZE);
+        final AtomicBoolean isOnMainThread = new AtomicBoolean();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ChangeEventListener listener = mArray.addChangeEventListener(new ChangeEventListener() {
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+                if (Looper.myLooper() == Looper.getMainLooper()) isOnMainThread.set(true);
+                if (type == EventType.ADDED) added.countDown();
+            }
+
+            @Override
+            public void onDataChanged() {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        }, executor);
+
+        assertTrue(added.await(10, TimeUnit.SECONDS));
+        assertFalse(isOnMainThread.get());
+        mArray.removeChangeEventListener(listener);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByLaterChanges() throws Exception {
+        final FirebaseArray<Integer> array = new FirebaseArray<>(
+                mRef, new ClassSnapshotParser<>(Integer.class), new PersistentSnapshotStorage());
+        ChangeEventListener listener = runAndWaitUntil(array, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(array, new int[]{1, 2, 3});
+            }
+        });
+        final SnapshotArrayVersion version = array.snapshot();
+
+        ChangeEventListener addListener = runAndWaitUntil(array, new Runnable() {
+            @Override
+            public void run() {
+                mRef.push().setValue(4, 4);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return array.size() == 4;
+            }
+        });
+
+        assertEquals(3, version.size());
+        for (int i = 0; i < version.size(); i++) {
+            assertEquals(Integer.valueOf(i + 1), version.get(i).getValue(Integer.class));
+        }
+        assertTrue(array.snapshot().getVersion() > version.getVersion());
+        array.removeChangeEventListener(addListener);
+        array.removeChangeEventListener(listener);
+    }
+
+    @Test
+    public void testSnapshotVersionCountsChangesWithoutEvents() throws Exception {
+        mArray.setDisplayEquivalence(new DisplayEquivalence<Integer>() {
+            @Override
+            public boolean isEquivalent(@NonNull Integer oldObject, @NonNull Integer newObject) {
+                return oldObject % 10 == newObject % 10;
+            }
+        });
+        SnapshotArrayVersion version = mArray.snapshot();
+
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mArray.get(0).getRef().setValue(11, 1);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.getObject(0).equals(11);
+            }
+        });
+
+        SnapshotArrayVersion changed = mArray.snapshot();
+        assertTrue(changed.getVersion() > version.getVersion());
+        assertEquals(Integer.valueOf(11), changed.get(0).getValue(Integer.class));
+    }
 }
@@ -0,0 +1,159 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.isValuesEqual;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebaseIndexArrayAsyncJoinTest {
+    private static final int INITIAL_SIZE = 3;
+
+    private DatabaseReference mRef;
+    private DatabaseReference mKeyRef;
+    private FirebaseIndexArray<Integer> mArray;
+    private ChangeEventListener mListener;
+
+    private final List<String> mKeys = new CopyOnWriteArrayList<>();
+    private final List<TaskCompletionSource<DatabaseReference>> mResolutions =
+            new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseDatabase databaseInstance =
+                FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()));
+        mRef = databaseInstance.getReference().child("firebasearray");
+        mKeyRef = databaseInstance.getReference().child("firebaseindexarray");
+
+        mArray = new FirebaseIndexArray<>(mKeyRef, mRef, Integer.class, new AsyncJoinResolver() {
+            @NonNull
+            @Override
+            public Task<DatabaseReference> onJoin(DataSnapshot keySnapshot) {
+                TaskCompletionSource<DatabaseReference> resolution = new TaskCompletionSource<>();
+                mKeys.add(keySnapshot.getKey());
+                mResolutions.add(resolution);
+                return resolution.getTask();
+            }
+
+            @Override
+            public void onResolveFailed(DataSnapshot keySnapshot, Exception e) {
+            }
+
+            @Override
+            public void onJoinFailed(DataSnapshot snapshot, int index) {
+            }
+        });
+        mRef.removeValue();
+        mKeyRef.removeValue();
+
+        mListener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= INITIAL_SIZE; i++) {
+                    TestUtils.pushValue(mKeyRef, mRef, i, i);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mResolutions.size() == INITIAL_SIZE;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mArray.removeChangeEventListener(mListener);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testOutOfOrderResolutionsKeepKeyOrder() throws Exception {
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = INITIAL_SIZE - 1; i >= 0; i--) {
+                    mResolutions.get(i).setResult(mRef.child(mKeys.get(i)));
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(mArray, new int[]{1, 2, 3});
+            }
+        });
+    }
+
+    @Test
+    public void testFailedResolutionLeavesKeyOut() throws Exception {
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mResolutions.get(0).setException(new Exception("Shard map unavailable"));
+                for (int i = 1; i < INITIAL_SIZE; i++) {
+                    mResolutions.get(i).setResult(mRef.child(mKeys.get(i)));
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(mArray, new int[]{2, 3});
+            }
+        });
+    }
+
+    @Test
+    public void testFailedResolutionsDontHoldBackDataChanged() throws Exception {
+        final Semaphore dataChanged = new Semaphore(0);
+        ChangeEventListener listener = mArray.addChangeEventListener(new ChangeEventListener() {
+            @Override
+            public void onChildChanged(EventType type,
+                                       DataSnapshot snapshot,
+                                       int index,
+                                       int oldIndex) {
+            }
+
+            @Override
+            public void onDataChanged() {
+                dataChanged.release();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        });
+        // Ignore the replayed data change, if any
+        dataChanged.drainPermits();
+
+        for (TaskCompletionSource<DatabaseReference> resolution : mResolutions) {
+            resolution.setException(new Exception("Shard map unavailable"));
+        }
+
+        assertTrue(dataChanged.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals(0, mArray.size());
+        mArray.removeChangeEventListener(listener);
+    }
+}
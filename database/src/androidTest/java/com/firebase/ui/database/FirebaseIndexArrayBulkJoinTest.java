@@ -0,0 +1,116 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.isValuesEqual;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebaseIndexArrayBulkJoinTest {
+    private static final int INITIAL_SIZE = 5;
+    private static final int CHUNK_SIZE = 2;
+
+    private DatabaseReference mRef;
+    private DatabaseReference mKeyRef;
+    private FirebaseIndexArray<Integer> mArray;
+    private ChangeEventListener mListener;
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseDatabase databaseInstance =
+                FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()));
+        mRef = databaseInstance.getReference().child("firebasearray");
+        mKeyRef = databaseInstance.getReference().child("firebaseindexarray");
+
+        mArray = new FirebaseIndexArray<>(mKeyRef, mRef, Integer.class);
+        mArray.setBulkJoinChunkSize(CHUNK_SIZE);
+        mRef.removeValue();
+        mKeyRef.removeValue();
+
+        mListener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= INITIAL_SIZE; i++) {
+                    TestUtils.pushValue(mKeyRef, mRef, i, i);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == INITIAL_SIZE;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mArray.removeChangeEventListener(mListener);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testChangesWithinChunkArePerKey() throws Exception {
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mRef.child(mArray.get(1).getKey()).setValue(20, 2);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(mArray, new int[]{1, 20, 3, 4, 5});
+            }
+        });
+    }
+
+    @Test
+    public void testUnindexedChildrenAreIgnored() throws Exception {
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                // Falls within the range of the first chunk
+                mRef.child(mArray.get(0).getKey() + "0").setValue(100, 1);
+                TestUtils.pushValue(mKeyRef, mRef, 6, 6);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(mArray, new int[]{1, 2, 3, 4, 5, 6});
+            }
+        });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCustomJoinResolverIsRejected() {
+        FirebaseIndexArray<Integer> array = new FirebaseIndexArray<>(
+                mKeyRef, mRef, new ClassSnapshotParser<>(Integer.class), new JoinResolver() {
+            @Override
+            public DatabaseReference onJoin(DataSnapshot keySnapshot) {
+                return mRef.child(keySnapshot.getKey());
+            }
+
+            @Override
+            public DatabaseReference onDisjoin(DataSnapshot keySnapshot) {
+                return onJoin(keySnapshot);
+            }
+
+            @Override
+            public void onJoinFailed(DataSnapshot snapshot, int index) {
+            }
+        });
+        array.setBulkJoinChunkSize(CHUNK_SIZE);
+    }
+}
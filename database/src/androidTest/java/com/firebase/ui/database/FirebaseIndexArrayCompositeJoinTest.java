@@ -0,0 +1,106 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebaseIndexArrayCompositeJoinTest {
+    private static final int INITIAL_SIZE = 3;
+
+    private DatabaseReference mRef;
+    private DatabaseReference mKeyRef;
+    private DatabaseReference mAuthorRef;
+    private FirebaseIndexArray<String> mArray;
+    private ChangeEventListener mListener;
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseDatabase databaseInstance =
+                FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()));
+        mRef = databaseInstance.getReference().child("firebasearray");
+        mKeyRef = databaseInstance.getReference().child("firebaseindexarray");
+        mAuthorRef = databaseInstance.getReference().child("firebaseauthor");
+
+        mArray = new FirebaseIndexArray<>(mKeyRef, mRef, new CompositeSnapshotParser<String>() {
+            @Override
+            public String parseSnapshots(List<DataSnapshot> snapshots) {
+                DataSnapshot author = snapshots.get(1);
+                return snapshots.get(0).getValue() + " by "
+                        + (author == null ? null : author.getValue());
+            }
+        }, new MultiJoinResolver() {
+            @NonNull
+            @Override
+            public List<DatabaseReference> onJoin(DataSnapshot keySnapshot) {
+                return Arrays.asList(mRef.child(keySnapshot.getKey()), mAuthorRef);
+            }
+
+            @Override
+            public void onJoinFailed(DataSnapshot snapshot, int index) {
+            }
+        });
+        mRef.removeValue();
+        mKeyRef.removeValue();
+        mAuthorRef.setValue("alice");
+
+        mListener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= INITIAL_SIZE; i++) {
+                    TestUtils.pushValue(mKeyRef, mRef, i, i);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isItemsEqual("alice");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mArray.removeChangeEventListener(mListener);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testSharedRefUpdatesEveryItem() throws Exception {
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mAuthorRef.setValue("bob");
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isItemsEqual("bob");
+            }
+        });
+    }
+
+    private boolean isItemsEqual(String author) {
+        if (mArray.size() != INITIAL_SIZE) return false;
+        for (int i = 0; i < INITIAL_SIZE; i++) {
+            if (!mArray.getObject(i).equals((i + 1) + " by " + author)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,97 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebaseIndexArrayViewportTest {
+    private static final int INITIAL_SIZE = 10;
+    private static final int JOIN_DISTANCE = 2;
+
+    private DatabaseReference mRef;
+    private DatabaseReference mKeyRef;
+    private FirebaseIndexArray<Integer> mArray;
+    private ChangeEventListener mListener;
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseDatabase databaseInstance =
+                FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()));
+        mRef = databaseInstance.getReference().child("firebasearray");
+        mKeyRef = databaseInstance.getReference().child("firebaseindexarray");
+
+        mArray = new FirebaseIndexArray<>(mKeyRef, mRef, Integer.class);
+        mArray.setViewportJoinDistance(JOIN_DISTANCE);
+        mArray.setPlaceholder(-1);
+        mRef.removeValue();
+        mKeyRef.removeValue();
+
+        mListener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < INITIAL_SIZE; i++) {
+                    TestUtils.pushValue(mKeyRef, mRef, i, i);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == INITIAL_SIZE && !mArray.isPlaceholder(JOIN_DISTANCE);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mArray.removeChangeEventListener(mListener);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testOnlyRowsNearBoundRowAreJoined() throws Exception {
+        for (int i = 0; i < INITIAL_SIZE; i++) {
+            if (i <= JOIN_DISTANCE) {
+                assertEquals(Integer.valueOf(i), mArray.getObject(i));
+            } else {
+                assertTrue(mArray.isPlaceholder(i));
+                assertEquals(Integer.valueOf(-1), mArray.getObject(i));
+            }
+        }
+
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        mArray.onItemBound(INITIAL_SIZE - 1);
+                    }
+                });
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                // Rows more than twice the join distance away are released
+                int last = INITIAL_SIZE - 1;
+                return mArray.isPlaceholder(0)
+                        && mArray.getObject(last).equals(last)
+                        && mArray.getObject(last - JOIN_DISTANCE).equals(last - JOIN_DISTANCE);
+            }
+        });
+    }
+}
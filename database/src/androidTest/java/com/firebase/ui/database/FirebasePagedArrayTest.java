@@ -0,0 +1,159 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebasePagedArrayTest {
+    private static final int TOTAL_SIZE = 25;
+    private static final int PAGE_SIZE = 10;
+
+    private DatabaseReference mRef;
+    private FirebasePagedArray<Integer> mArray;
+    private ChangeEventListener mListener;
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseApp app = getAppInstance(InstrumentationRegistry.getContext());
+        mRef = FirebaseDatabase.getInstance(app).getReference().child("firebasepagedarray");
+        mArray = new FirebasePagedArray<>(mRef, null, PAGE_SIZE, Integer.class);
+        mRef.removeValue();
+        mListener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Object> children = new HashMap<>();
+                for (int i = 0; i < TOTAL_SIZE; i++) {
+                    children.put(getKey(i), i);
+                }
+                mRef.setValue(children);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == PAGE_SIZE;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mArray.removeChangeEventListener(mListener);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testLoadsPagesAsEndIsBound() throws Exception {
+        runAndWaitUntil(mArray, bind(PAGE_SIZE - 1), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == 2 * PAGE_SIZE - 1;
+            }
+        });
+        runAndWaitUntil(mArray, bind(2 * PAGE_SIZE - 2), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                if (mArray.size() != TOTAL_SIZE) return false;
+                for (int i = 0; i < TOTAL_SIZE; i++) {
+                    if (!mArray.getObject(i).equals(i)) return false;
+                }
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void testDropsFarPages() throws Exception {
+        mArray.setMaxLoadedPages(1);
+        runAndWaitUntil(mArray, bind(PAGE_SIZE - 1), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == 2 * PAGE_SIZE - 1;
+            }
+        });
+        runAndWaitUntil(mArray, bind(2 * PAGE_SIZE - 2), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                // The first page is dropped, its last child belongs to the second one
+                return mArray.size() == TOTAL_SIZE - PAGE_SIZE + 1
+                        && mArray.get(0).getKey().equals(getKey(PAGE_SIZE - 1));
+            }
+        });
+    }
+
+    @Test
+    public void testFullMiddlePageIsSplit() throws Exception {
+        mArray.setMaxLoadedPages(10);
+        runAndWaitUntil(mArray, bind(PAGE_SIZE - 1), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == 2 * PAGE_SIZE - 1;
+            }
+        });
+
+        // Grow the first page past the limit of its query, which is bounded by the second page
+        final List<String> expected = new ArrayList<>();
+        final Map<String, Object> added = new HashMap<>();
+        expected.add(getKey(0));
+        for (int i = 0; i < 2 * PAGE_SIZE; i++) {
+            String key = getKey(0) + String.format(Locale.US, "-%02d", i);
+            expected.add(key);
+            added.put(key, TOTAL_SIZE + i);
+        }
+        for (int i = 1; i < 2 * PAGE_SIZE - 1; i++) {
+            expected.add(getKey(i));
+        }
+
+        runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                mRef.updateChildren(added);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                if (mArray.size() != expected.size()) return false;
+                for (int i = 0; i < expected.size(); i++) {
+                    if (!mArray.get(i).getKey().equals(expected.get(i))) return false;
+                }
+                return true;
+            }
+        });
+    }
+
+    private Runnable bind(final int index) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        mArray.onItemBound(index);
+                    }
+                });
+            }
+        };
+    }
+
+    private static String getKey(int index) {
+        return String.format(Locale.US, "k%02d", index);
+    }
+}
@@ -0,0 +1,304 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.setAndGetChildren;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebaseRecyclerAdapterTest {
+    private static final int CHILDREN = 40;
+    private static final int INITIAL_SIZE = 10;
+    private static final SnapshotParser<Integer> PARSER = new SnapshotParser<Integer>() {
+        @Override
+        public Integer parseSnapshot(DataSnapshot snapshot) {
+            return snapshot.child("value").getValue(Integer.class);
+        }
+    };
+
+    private DatabaseReference mRef;
+    private List<DataSnapshot> mChildren;
+    private List<DataSnapshot> mChangedChildren;
+
+    private TestSnapshotArray<Integer> mArray;
+    private FirebaseRecyclerAdapter<Integer, TestHolder> mAdapter;
+    private NotifiedKeys mNotifiedKeys;
+
+    @Before
+    public void setUp() throws Exception {
+        mRef = FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()))
+                .getReference()
+                .child("firebaserecycleradapter");
+        mChildren = setAndGetChildren(mRef, getValues(0));
+        mChangedChildren = setAndGetChildren(mRef, getValues(100));
+        assertEquals(CHILDREN, mChildren.size());
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mArray = new TestSnapshotArray<>(PARSER);
+                for (int i = 0; i < INITIAL_SIZE; i++) {
+                    mArray.addChild(i, mChildren.get(i));
+                }
+                mArray.finishUpdate();
+
+                mAdapter = new FirebaseRecyclerAdapter<Integer, TestHolder>(
+                        mArray, android.R.layout.simple_list_item_1, TestHolder.class) {
+                    @Override
+                    protected void populateViewHolder(TestHolder viewHolder,
+                                                      Integer model,
+                                                      int position) {
+                    }
+                };
+                mAdapter.setBatchingEnabled(true);
+                mNotifiedKeys = new NotifiedKeys(getShownKeys());
+                mAdapter.registerAdapterDataObserver(mNotifiedKeys);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.unregisterAdapterDataObserver(mNotifiedKeys);
+                mAdapter.cleanup();
+            }
+        });
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testMixedBurstIsSentTogetherWithItsData() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                List<String> shown = getShownKeys();
+
+                mArray.addChild(0, mChildren.get(10));
+                assertNothingSent(shown);
+                mArray.removeChild(5);
+                assertNothingSent(shown);
+                mArray.moveChild(7, 1);
+                assertNothingSent(shown);
+                mArray.addChild(mArray.size(), mChildren.get(11));
+                assertNothingSent(shown);
+                mArray.removeChild(0);
+                assertNothingSent(shown);
+                mArray.moveChild(0, 4);
+                assertNothingSent(shown);
+                mArray.addChild(3, mChildren.get(12));
+                assertNothingSent(shown);
+
+                mArray.finishUpdate();
+                assertTrue(mNotifiedKeys.mNotifications > 0);
+                assertNotifiedKeysMatch();
+            }
+        });
+    }
+
+    @Test
+    public void testRandomBurstsKeepAdapterConsistent() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(42);
+                List<DataSnapshot> unused =
+                        new ArrayList<>(mChildren.subList(INITIAL_SIZE, CHILDREN));
+
+                for (int burst = 0; burst < 50; burst++) {
+                    List<String> shown = getShownKeys();
+                    int operations = 1 + random.nextInt(15);
+                    for (int i = 0; i < operations; i++) {
+                        int operation = random.nextInt(3);
+                        if (mArray.isEmpty() || operation == 0 && !unused.isEmpty()) {
+                            DataSnapshot snapshot = unused.remove(random.nextInt(unused.size()));
+                            mArray.addChild(random.nextInt(mArray.size() + 1), snapshot);
+                        } else if (operation == 1) {
+                            int index = random.nextInt(mArray.size());
+                            unused.add(mArray.get(index));
+                            mArray.removeChild(index);
+                        } else {
+                            mArray.moveChild(random.nextInt(mArray.size()),
+                                             random.nextInt(mArray.size()));
+                        }
+                        assertNothingSent(shown);
+                    }
+
+                    mArray.finishUpdate();
+                    assertNotifiedKeysMatch();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testContiguousChangesAreMerged() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mArray.changeChild(3, mChangedChildren.get(3));
+                mArray.changeChild(2, mChangedChildren.get(2));
+                mArray.changeChild(4, mChangedChildren.get(4));
+                mArray.changeChild(3, mChildren.get(3));
+                assertEquals(0, mNotifiedKeys.mNotifications);
+
+                mArray.finishUpdate();
+                assertEquals(Collections.singletonList("2+3"), mNotifiedKeys.mChangedRanges);
+                assertEquals(Integer.valueOf(102), mAdapter.getItem(2));
+            }
+        });
+    }
+
+    @Test
+    public void testChangesHaveNoPayloadByDefault() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mArray.changeChild(2, mChangedChildren.get(2));
+                mArray.finishUpdate();
+
+                assertEquals(Collections.singletonList(null), mNotifiedKeys.mPayloads);
+            }
+        });
+    }
+
+    @Test
+    public void testPartialBindsPassChangedChildren() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.setPartialBindsEnabled(true);
+                mArray.changeChild(2, mChangedChildren.get(2));
+                mArray.finishUpdate();
+
+                assertEquals(Collections.<Object>singletonList(Collections.singleton("value")),
+                             mNotifiedKeys.mPayloads);
+            }
+        });
+    }
+
+    private void assertNothingSent(List<String> shown) {
+        assertEquals(0, mNotifiedKeys.mNotifications);
+        assertEquals(shown, getShownKeys());
+    }
+
+    /**
+     * Check that applying every notification to the previously shown rows gives the array's rows,
+     * with inserted rows standing for keys that weren't shown before.
+     */
+    private void assertNotifiedKeysMatch() {
+        List<String> keys = getShownKeys();
+        assertEquals(mArray.size(), keys.size());
+        assertEquals(keys.size(), mNotifiedKeys.mKeys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(mArray.get(i).getKey(), keys.get(i));
+
+            String notified = mNotifiedKeys.mKeys.get(i);
+            if (notified == null) {
+                assertFalse(mNotifiedKeys.mKeys.contains(keys.get(i)));
+            } else {
+                assertEquals(notified, keys.get(i));
+            }
+        }
+
+        mNotifiedKeys.mKeys.clear();
+        mNotifiedKeys.mKeys.addAll(keys);
+        mNotifiedKeys.mNotifications = 0;
+    }
+
+    private List<String> getShownKeys() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < mAdapter.getItemCount(); i++) {
+            assertNotNull(mAdapter.getItem(i));
+            keys.add(mAdapter.getRef(i).getKey());
+        }
+        return keys;
+    }
+
+    private static Map<String, Object> getValues(int offset) {
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < CHILDREN; i++) {
+            Map<String, Object> child = new HashMap<>();
+            child.put("value", offset + i);
+            child.put("name", "child" + i);
+            values.put(String.format("key%02d", i), child);
+        }
+        return values;
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    public static class TestHolder extends RecyclerView.ViewHolder {
+        public TestHolder(View itemView) {
+            super(itemView);
+        }
+    }
+
+    /**
+     * Applies the adapter's notifications to the keys it showed, the way a RecyclerView would.
+     * Inserted rows are null since their key is only known once the notification is complete.
+     */
+    private static class NotifiedKeys extends RecyclerView.AdapterDataObserver {
+        private final List<String> mKeys;
+        private final List<String> mChangedRanges = new ArrayList<>();
+        private final List<Object> mPayloads = new ArrayList<>();
+        private int mNotifications;
+
+        public NotifiedKeys(List<String> keys) {
+            mKeys = new ArrayList<>(keys);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mNotifications++;
+            mKeys.addAll(positionStart, Arrays.asList(new String[itemCount]));
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mNotifications++;
+            mKeys.subList(positionStart, positionStart + itemCount).clear();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            mNotifications++;
+            mKeys.add(toPosition, mKeys.remove(fromPosition));
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            mNotifications++;
+            mChangedRanges.add(positionStart + "+" + itemCount);
+            mPayloads.add(payload);
+        }
+    }
+}
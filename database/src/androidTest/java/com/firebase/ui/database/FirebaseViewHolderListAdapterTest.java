@@ -0,0 +1,138 @@
+package com.firebase.ui.database;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.setAndGetChildren;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4.class)
+public class FirebaseViewHolderListAdapterTest {
+    private static final int CHILDREN = 3;
+
+    private DatabaseReference mRef;
+    private TestSnapshotArray<Integer> mArray;
+    private FirebaseViewHolderListAdapter<Integer> mAdapter;
+    private final List<FirebaseViewHolderListAdapter.ViewHolder> mHolders = new ArrayList<>();
+
+    private FrameLayout mRow;
+    private TextView mText;
+
+    @Before
+    public void setUp() throws Exception {
+        mRef = FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()))
+                .getReference()
+                .child("firebaseviewholderlistadapter");
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < CHILDREN; i++) {
+            values.put("key" + i, i);
+        }
+        final List<DataSnapshot> children = setAndGetChildren(mRef, values);
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        mRow = new FrameLayout(context);
+        mText = new TextView(context);
+        mText.setId(android.R.id.text1);
+        mRow.addView(mText);
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mArray = new TestSnapshotArray<>(new ClassSnapshotParser<>(Integer.class));
+                for (int i = 0; i < children.size(); i++) {
+                    mArray.addChild(i, children.get(i));
+                }
+                mArray.finishUpdate();
+
+                // Rows are always recycled in these tests, so no activity is needed to inflate them
+                mAdapter = new FirebaseViewHolderListAdapter<Integer>(
+                        null, mArray, android.R.layout.simple_list_item_1) {
+                    @Override
+                    protected void populateView(ViewHolder holder, Integer model, int position) {
+                        mHolders.add(holder);
+                    }
+                };
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.cleanup();
+            }
+        });
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testRecycledRowKeepsItsHolder() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.getView(0, mRow, null);
+                mAdapter.getView(1, mRow, null);
+
+                assertEquals(2, mHolders.size());
+                assertSame(mHolders.get(0), mHolders.get(1));
+                assertSame(mRow, mHolders.get(0).getItemView());
+            }
+        });
+    }
+
+    @Test
+    public void testSubViewsAreOnlyLookedUpOnce() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.getView(0, mRow, null);
+                assertSame(mText, mHolders.get(0).getView(android.R.id.text1));
+
+                // A second lookup would no longer find the sub-view
+                mRow.removeView(mText);
+                mAdapter.getView(1, mRow, null);
+                assertSame(mText, mHolders.get(1).getView(android.R.id.text1));
+            }
+        });
+    }
+
+    @Test
+    public void testRowTagIsLeftToTheApp() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRow.setTag("app");
+                mAdapter.getView(0, mRow, null);
+                mAdapter.getView(1, mRow, null);
+
+                assertSame(mHolders.get(0), mHolders.get(1));
+                assertEquals("app", mRow.getTag());
+            }
+        });
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
@@ -0,0 +1,99 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.isValuesEqual;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class JoinListenerPoolTest {
+    private static final int INITIAL_SIZE = 3;
+
+    private DatabaseReference mRef;
+    private DatabaseReference mKeyRef;
+    private FirebaseIndexArray<Integer> mArray;
+    private FirebaseIndexArray<Integer> mOtherArray;
+    private ChangeEventListener mListener;
+    private ChangeEventListener mOtherListener;
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseDatabase databaseInstance =
+                FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()));
+        mRef = databaseInstance.getReference().child("firebasearray");
+        mKeyRef = databaseInstance.getReference().child("firebaseindexarray");
+
+        mArray = new FirebaseIndexArray<>(mKeyRef, mRef, Integer.class);
+        mArray.setJoinListenerPool(JoinListenerPool.getInstance());
+        mOtherArray = new FirebaseIndexArray<>(mKeyRef, mRef, Integer.class);
+        mOtherArray.setJoinListenerPool(JoinListenerPool.getInstance());
+        mRef.removeValue();
+        mKeyRef.removeValue();
+
+        mListener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= INITIAL_SIZE; i++) {
+                    TestUtils.pushValue(mKeyRef, mRef, i, i);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == INITIAL_SIZE;
+            }
+        });
+        mOtherListener = runAndWaitUntil(mOtherArray, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mOtherArray.size() == INITIAL_SIZE;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mArray.removeChangeEventListener(mListener);
+        mOtherArray.removeChangeEventListener(mOtherListener);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testArraysShareJoinedRefs() throws Exception {
+        final DatabaseReference ref = mRef.child(mArray.get(0).getKey());
+        assertEquals(2, JoinListenerPool.getInstance().getSubscriberCount(ref));
+
+        runAndWaitUntil(mOtherArray, new Runnable() {
+            @Override
+            public void run() {
+                ref.setValue(10, 1);
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isValuesEqual(mArray, new int[]{10, 2, 3})
+                        && isValuesEqual(mOtherArray, new int[]{10, 2, 3});
+            }
+        });
+
+        mOtherArray.removeChangeEventListener(mOtherListener);
+        assertEquals(1, JoinListenerPool.getInstance().getSubscriberCount(ref));
+    }
+}
@@ -0,0 +1,60 @@
+package com.firebase.ui.database;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class LruObjectCacheTest {
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        LruObjectCache<String> cache = new LruObjectCache<>(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void testBoundedBySizer() throws Exception {
+        LruObjectCache<String> cache = new LruObjectCache<>(10, new LruObjectCache.Sizer<String>() {
+            @Override
+            public int sizeOf(@NonNull String key, @NonNull String object) {
+                return object.length();
+            }
+        });
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals(8, cache.size());
+
+        cache.put("c", "cccc");
+        assertNull(cache.get("a"));
+        assertEquals(8, cache.size());
+    }
+
+    @Test
+    public void testTrimMemory() throws Exception {
+        LruObjectCache<Integer> cache = new LruObjectCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(String.valueOf(i), i);
+        }
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(5, cache.size());
+        assertNotNull(cache.get("9"));
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, cache.size());
+    }
+}
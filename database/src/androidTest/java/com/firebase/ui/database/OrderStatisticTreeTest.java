@@ -0,0 +1,90 @@
+package com.firebase.ui.database;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class OrderStatisticTreeTest {
+    private static final int OPERATIONS = 5000;
+
+    @Test
+    public void testMatchesArrayList() throws Exception {
+        Random random = new Random(42);
+        List<Integer> expected = new ArrayList<>();
+        OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int op = random.nextInt(4);
+            if (op < 2 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                expected.add(index, i);
+                tree.add(index, i);
+            } else if (op == 2) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), tree.remove(index));
+            } else {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.set(index, -i), tree.set(index, -i));
+            }
+        }
+
+        assertEquals(expected, tree);
+    }
+
+    @Test
+    public void testNodeIndexTracksMutations() throws Exception {
+        Random random = new Random(42);
+        List<OrderStatisticTree.Node<Integer>> nodes = new ArrayList<>();
+        OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (random.nextInt(3) < 2 || nodes.isEmpty()) {
+                int index = random.nextInt(nodes.size() + 1);
+                nodes.add(index, tree.insertNode(index, i));
+            } else {
+                tree.removeNode(nodes.remove(random.nextInt(nodes.size())));
+            }
+        }
+
+        assertEquals(nodes.size(), tree.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            OrderStatisticTree.Node<Integer> node = nodes.get(i);
+            assertEquals(i, tree.indexOf(node));
+            assertEquals(node.getValue(), tree.get(i));
+        }
+    }
+
+    @Test
+    public void testMarkedIndexCountsPrecedingMarkedNodes() throws Exception {
+        Random random = new Random(42);
+        List<OrderStatisticTree.Node<Integer>> nodes = new ArrayList<>();
+        OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int op = random.nextInt(4);
+            if (op < 2 || nodes.isEmpty()) {
+                int index = random.nextInt(nodes.size() + 1);
+                nodes.add(index, tree.insertNode(index, i));
+            } else if (op == 2) {
+                tree.removeNode(nodes.remove(random.nextInt(nodes.size())));
+            } else {
+                tree.setMarked(nodes.get(random.nextInt(nodes.size())), random.nextBoolean());
+            }
+        }
+
+        int marked = 0;
+        for (OrderStatisticTree.Node<Integer> node : nodes) {
+            assertEquals(marked, tree.markedIndexOf(node));
+            if (node.isMarked()) marked++;
+        }
+        assertEquals(marked, tree.getMarkedCount());
+    }
+}
@@ -0,0 +1,110 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link ClassSnapshotParser} with the {@code Bean_SnapshotParser} generated by the
+ * {@code database-processor} module on real snapshots. Results are logged under the {@value #TAG}
+ * tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParserBenchmark {
+    private static final String TAG = "ParserBenchmark";
+
+    private static final int SIZE = 200;
+    private static final int ROUNDS = 50;
+    private static final int WARMUP_ROUNDS = 10;
+
+    private DatabaseReference mRef;
+    private FirebaseArray<Bean> mArray;
+    private ChangeEventListener mListener;
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseApp app = getAppInstance(InstrumentationRegistry.getContext());
+        mRef = FirebaseDatabase.getInstance(app)
+                .getReference()
+                .child("firebasearray")
+                .child("parsers");
+        mArray = new FirebaseArray<>(mRef, Bean.class);
+        mRef.removeValue();
+        mListener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= SIZE; i++) {
+                    mRef.push().setValue(new Bean(i), i);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == SIZE;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mArray.removeChangeEventListener(mListener);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void benchmarkParsers() throws Exception {
+        List<DataSnapshot> snapshots = new ArrayList<>(mArray);
+        SnapshotParser<Bean> reflective = new ClassSnapshotParser<>(Bean.class);
+        SnapshotParser<Bean> generated = new Bean_SnapshotParser();
+
+        for (DataSnapshot snapshot : snapshots) {
+            Bean expected = reflective.parseSnapshot(snapshot);
+            Bean actual = generated.parseSnapshot(snapshot);
+            assertEquals(expected.getNumber(), actual.getNumber());
+            assertEquals(expected.getText(), actual.getText());
+            assertEquals(expected.isBool(), actual.isBool());
+        }
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(reflective, snapshots);
+            run(generated, snapshots);
+        }
+
+        long reflectiveNanos = 0;
+        long generatedNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            reflectiveNanos += run(reflective, snapshots);
+            generatedNanos += run(generated, snapshots);
+        }
+
+        long parses = (long) ROUNDS * snapshots.size();
+        Log.i(TAG, "ClassSnapshotParser=" + reflectiveNanos / parses + "ns/snapshot"
+                + " Bean_SnapshotParser=" + generatedNanos / parses + "ns/snapshot");
+    }
+
+    private static long run(SnapshotParser<Bean> parser, List<DataSnapshot> snapshots) {
+        long start = System.nanoTime();
+        for (DataSnapshot snapshot : snapshots) {
+            parser.parseSnapshot(snapshot);
+        }
+        return System.nanoTime() - start;
+    }
+}
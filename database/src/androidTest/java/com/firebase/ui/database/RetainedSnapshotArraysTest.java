@@ -0,0 +1,119 @@
+package com.firebase.ui.database;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.app.FragmentActivity;
+
+import com.google.firebase.database.DataSnapshot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RetainedSnapshotArraysTest {
+    private static final long TIMEOUT = 5000;
+    private static final String KEY = "values";
+
+    @Rule
+    public final ActivityTestRule<TestActivity> mActivityRule =
+            new ActivityTestRule<>(TestActivity.class);
+
+    @Test
+    public void testArrayIsRetainedAcrossRecreation() throws Exception {
+        final TestActivity activity = mActivityRule.getActivity();
+        ObservableSnapshotArray<Integer> array = obtain(activity);
+
+        Instrumentation.ActivityMonitor monitor = getInstrumentation()
+                .addMonitor(TestActivity.class.getName(), null, false);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.recreate();
+            }
+        });
+        Activity recreated = monitor.waitForActivityWithTimeout(TIMEOUT);
+        getInstrumentation().removeMonitor(monitor);
+        assertNotNull(recreated);
+        assertNotSame(activity, recreated);
+
+        try {
+            assertSame(array, obtain((TestActivity) recreated));
+            assertTrue(array.isListening());
+        } finally {
+            recreated.finish();
+        }
+    }
+
+    @Test
+    public void testArrayStopsListeningWhenActivityFinishes() throws Exception {
+        final TestActivity activity = mActivityRule.getActivity();
+        final ObservableSnapshotArray<Integer> array = obtain(activity);
+        assertTrue(array.isListening());
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.finish();
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        final boolean[] isListening = {true};
+        while (isListening[0] && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    isListening[0] = array.isListening();
+                }
+            });
+        }
+        assertFalse(isListening[0]);
+    }
+
+    private static ObservableSnapshotArray<Integer> obtain(final FragmentActivity activity) {
+        final ObservableSnapshotArray<?>[] array = new ObservableSnapshotArray<?>[1];
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                array[0] = RetainedSnapshotArrays.of(activity).obtain(
+                        KEY, new SnapshotArrayRegistry.Factory<Integer>() {
+                            @NonNull
+                            @Override
+                            public ObservableSnapshotArray<Integer> create() {
+                                return new TestSnapshotArray<>(new SnapshotParser<Integer>() {
+                                    @Override
+                                    public Integer parseSnapshot(DataSnapshot snapshot) {
+                                        return snapshot.getValue(Integer.class);
+                                    }
+                                });
+                            }
+                        });
+            }
+        });
+        @SuppressWarnings("unchecked")
+        ObservableSnapshotArray<Integer> result = (ObservableSnapshotArray<Integer>) array[0];
+        return result;
+    }
+
+    private static Instrumentation getInstrumentation() {
+        return InstrumentationRegistry.getInstrumentation();
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        getInstrumentation().runOnMainSync(runnable);
+    }
+
+    public static class TestActivity extends FragmentActivity {}
+}
@@ -0,0 +1,84 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.runAndWaitUntil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SnapshotArrayRegistryTest {
+    private static final int INITIAL_SIZE = 3;
+
+    private DatabaseReference mRef;
+    private SnapshotArrayRegistry mRegistry;
+    private SnapshotArrayRegistry.Factory<Integer> mFactory;
+    private ObservableSnapshotArray<Integer> mArray;
+
+    @Before
+    public void setUp() throws Exception {
+        FirebaseDatabase databaseInstance =
+                FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()));
+        mRef = databaseInstance.getReference().child("firebasearray");
+        mRegistry = SnapshotArrayRegistry.getInstance();
+        mFactory = new SnapshotArrayRegistry.Factory<Integer>() {
+            @NonNull
+            @Override
+            public ObservableSnapshotArray<Integer> create() {
+                return new FirebaseArray<>(mRef, Integer.class);
+            }
+        };
+        mRef.removeValue();
+
+        mArray = mRegistry.obtain(mRef, mFactory);
+        ChangeEventListener listener = runAndWaitUntil(mArray, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= INITIAL_SIZE; i++) {
+                    mRef.push().setValue(i, i);
+                }
+            }
+        }, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mArray.size() == INITIAL_SIZE;
+            }
+        });
+        mArray.removeChangeEventListener(listener);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRegistry.evictAll();
+        mRegistry.setLingerMillis(SnapshotArrayRegistry.DEFAULT_LINGER_MILLIS);
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void testArrayLingersAfterLastListener() throws Exception {
+        assertTrue(mArray.isListening());
+        assertEquals(INITIAL_SIZE, mArray.size());
+        assertSame(mArray, mRegistry.obtain(mRef, mFactory));
+    }
+
+    @Test
+    public void testEvictStopsLingeringArray() throws Exception {
+        mRegistry.evict(mRef);
+        assertEquals(0, mArray.size());
+        assertTrue(mArray != mRegistry.obtain(mRef, mFactory));
+    }
+}
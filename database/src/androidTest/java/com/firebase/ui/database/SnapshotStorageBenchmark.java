@@ -0,0 +1,126 @@
+package com.firebase.ui.database;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.firebase.ui.database.TestUtils.getAppInstance;
+import static com.firebase.ui.database.TestUtils.setAndGetChildren;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link ArraySnapshotStorage} with {@link TreeSnapshotStorage} on a workload of keyed
+ * child events at random positions: inserts after a looked up previous key, removals, moves and
+ * changes by key, and indexed reads. Results are logged under the {@value #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SnapshotStorageBenchmark {
+    private static final String TAG = "StorageBenchmark";
+
+    private static final int[] SIZES = {100, 1000, 5000, 10000, 20000, 50000};
+    private static final int OPERATIONS = 10000;
+    private static final int WARMUP_ROUNDS = 3;
+
+    private DatabaseReference mRef;
+    private List<DataSnapshot> mSnapshots;
+
+    @Before
+    public void setUp() throws Exception {
+        mRef = FirebaseDatabase.getInstance(getAppInstance(InstrumentationRegistry.getContext()))
+                .getReference()
+                .child("snapshotstoragebenchmark");
+
+        // Enough children to fill the largest storage and insert a new one on every operation
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < SIZES[SIZES.length - 1] + OPERATIONS; i++) {
+            values.put(String.format("key%06d", i), i);
+        }
+        mSnapshots = setAndGetChildren(mRef, values);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRef.getRoot().removeValue();
+    }
+
+    @Test
+    public void benchmarkChildEvents() throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(new ArraySnapshotStorage(), SIZES[1]);
+            run(new TreeSnapshotStorage(), SIZES[1]);
+        }
+
+        int crossover = -1;
+        for (int size : SIZES) {
+            SnapshotStorage array = new ArraySnapshotStorage();
+            SnapshotStorage tree = new TreeSnapshotStorage();
+
+            long arrayNanos = run(array, size);
+            long treeNanos = run(tree, size);
+            assertEquals(array, tree);
+
+            Log.i(TAG, "size=" + size
+                    + " ArraySnapshotStorage=" + arrayNanos / 1000 + "us"
+                    + " TreeSnapshotStorage=" + treeNanos / 1000 + "us");
+            if (crossover == -1 && treeNanos < arrayNanos) crossover = size;
+        }
+
+        Log.i(TAG, crossover == -1
+                ? "ArraySnapshotStorage was faster at every size"
+                : "TreeSnapshotStorage is faster from size " + crossover);
+    }
+
+    /**
+     * Fill the storage up to {@code size} snapshots and then time a fixed number of operations
+     * shaped like the child events a {@link FirebaseArray} handles.
+     */
+    private long run(SnapshotStorage storage, int size) {
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            storage.add(i, mSnapshots.get(i));
+        }
+        List<DataSnapshot> unused = new ArrayList<>(mSnapshots.subList(size, mSnapshots.size()));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            String key = storage.get(random.nextInt(storage.size())).getKey();
+            switch (i % 5) {
+                case 0: // Added after the previous child's key
+                    storage.add(storage.getIndexForKey(key) + 1,
+                                unused.remove(unused.size() - 1));
+                    break;
+                case 1: // Removed
+                    unused.add(storage.remove(storage.getIndexForKey(key)));
+                    break;
+                case 2: // Moved after another child's key
+                    DataSnapshot moved = storage.remove(storage.getIndexForKey(key));
+                    String previousKey = storage.get(random.nextInt(storage.size())).getKey();
+                    storage.add(storage.getIndexForKey(previousKey) + 1, moved);
+                    break;
+                case 3: // Changed
+                    int index = storage.getIndexForKey(key);
+                    storage.set(index, storage.get(index));
+                    break;
+                default: // Bound in the adapter
+                    storage.get(random.nextInt(storage.size()));
+                    break;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
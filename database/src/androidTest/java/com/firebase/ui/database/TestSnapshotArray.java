@@ -0,0 +1,52 @@
+package com.firebase.ui.database;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An array whose child events are sent by the test itself, so that exact sequences of events can be
+ * replayed against listeners and adapters.
+ */
+public class TestSnapshotArray<T> extends ObservableSnapshotArray<T> {
+    private final List<DataSnapshot> mSnapshots = new ArrayList<>();
+
+    public TestSnapshotArray(SnapshotParser<T> parser) {
+        super(parser);
+    }
+
+    @Override
+    protected List<DataSnapshot> getSnapshots() {
+        return mSnapshots;
+    }
+
+    public void addChild(int index, DataSnapshot snapshot) {
+        mSnapshots.add(index, snapshot);
+        onSnapshotsChanged();
+        notifyChangeEventListeners(ChangeEventListener.EventType.ADDED, snapshot, index);
+    }
+
+    public void removeChild(int index) {
+        DataSnapshot snapshot = mSnapshots.remove(index);
+        onSnapshotsChanged();
+        notifyChangeEventListeners(ChangeEventListener.EventType.REMOVED, snapshot, index);
+    }
+
+    public void moveChild(int oldIndex, int index) {
+        DataSnapshot snapshot = mSnapshots.remove(oldIndex);
+        mSnapshots.add(index, snapshot);
+        onSnapshotsChanged();
+        notifyChangeEventListeners(ChangeEventListener.EventType.MOVED, snapshot, index, oldIndex);
+    }
+
+    public void changeChild(int index, DataSnapshot snapshot) {
+        rememberReplacedSnapshot(mSnapshots.set(index, snapshot));
+        onSnapshotsChanged();
+        notifyChangeEventListeners(ChangeEventListener.EventType.CHANGED, snapshot, index);
+    }
+
+    public void finishUpdate() {
+        notifyListenersOnDataChanged();
+    }
+}
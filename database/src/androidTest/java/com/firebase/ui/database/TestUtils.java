@@ -7,8 +7,13 @@ import com.google.firebase.FirebaseOptions;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -98,4 +103,34 @@ public class TestUtils {
             ref.child(key).setValue(value);
         }
     }
+
+    /**
+     * Write the given children to a location and read them back as snapshots, for tests which need
+     * real snapshots without listening to a query.
+     */
+    public static List<DataSnapshot> setAndGetChildren(DatabaseReference ref,
+                                                       Map<String, Object> values)
+            throws InterruptedException {
+        ref.setValue(values);
+
+        final List<DataSnapshot> children = new ArrayList<>();
+        final CountDownLatch loaded = new CountDownLatch(1);
+        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                for (DataSnapshot child : snapshot.getChildren()) {
+                    children.add(child);
+                }
+                loaded.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                throw new IllegalStateException(error.toException());
+            }
+        });
+        assertTrue(loaded.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        return children;
+    }
 }
@@ -0,0 +1,174 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The default {@link SnapshotStorage}, backed by an {@link ArrayList}.
+ * <p>
+ * Key positions are kept in a map and stored relative to an offset, so that inserting or removing
+ * a snapshot leaves the positions on one side of it correct: the side after it, by moving the
+ * offset, if that side is longer, or the side before it otherwise. The positions on the other side
+ * are only marked as stale and re-indexed lazily, when a key whose position turns out to be stale
+ * is looked up. Every change therefore updates a single position, and a lookup re-indexes at most
+ * the stale snapshots between the correct range and the key. The list itself still shifts every
+ * following element on inserts and removals, see {@link TreeSnapshotStorage} for very large lists.
+ * <p>
+ * {@link #toImmutableList()} is O(1): the list is shared with the returned version and only copied
+ * by the next change, so contents captured repeatedly without changes in between are never copied.
+ */
+public class ArraySnapshotStorage extends SnapshotStorage implements RandomAccess {
+    private List<DataSnapshot> mSnapshots = new ArrayList<>();
+    /** True if {@link #mSnapshots} was handed out by {@link #toImmutableList()}. */
+    private boolean mIsShared;
+    /** The position of each key plus {@link #mOffset}, which may be stale. */
+    private final Map<String, Integer> mKeyPositions = new HashMap<>();
+    private int mOffset;
+
+    /**
+     * The snapshots from this index (inclusive) to {@link #mIndexedEnd} (exclusive) are guaranteed
+     * to have their current position in {@link #mKeyPositions}. Others may be stale.
+     */
+    private int mIndexedStart;
+    private int mIndexedEnd;
+
+    @Override
+    public int getIndexForKey(String key) {
+        Integer position = mKeyPositions.get(key);
+        // Every key in the storage has a position, even if it is stale
+        if (position == null) return -1;
+
+        int index = position - mOffset;
+        if (index >= 0 && index < mSnapshots.size() && isKeyAtIndex(key, index)) return index;
+
+        // Re-index outwards from the correct range until the key is found
+        while (mIndexedEnd < mSnapshots.size()) {
+            if (reindex(mIndexedEnd++).equals(key)) return mIndexedEnd - 1;
+        }
+        while (mIndexedStart > 0) {
+            if (reindex(--mIndexedStart).equals(key)) return mIndexedStart;
+        }
+
+        throw new IllegalStateException("Key " + key + " is indexed but missing");
+    }
+
+    private boolean isKeyAtIndex(String key, int index) {
+        return mSnapshots.get(index).getKey().equals(key);
+    }
+
+    /**
+     * Store the current position of the snapshot at the given index.
+     *
+     * @return the snapshot's key
+     */
+    private String reindex(int index) {
+        String key = mSnapshots.get(index).getKey();
+        mKeyPositions.put(key, index + mOffset);
+        return key;
+    }
+
+    @Override
+    public DataSnapshot get(int index) {
+        return mSnapshots.get(index);
+    }
+
+    @Override
+    public int size() {
+        return mSnapshots.size();
+    }
+
+    @Override
+    public DataSnapshot set(int index, DataSnapshot snapshot) {
+        copyIfShared();
+        DataSnapshot old = mSnapshots.set(index, snapshot);
+        if (!old.getKey().equals(snapshot.getKey())) {
+            mKeyPositions.remove(old.getKey());
+        }
+        reindex(index);
+
+        return old;
+    }
+
+    @Override
+    public void add(int index, DataSnapshot snapshot) {
+        copyIfShared();
+        mSnapshots.add(index, snapshot);
+        if (index < mSnapshots.size() - 1 - index) {
+            // Keep the positions after the snapshot by moving the offset
+            mOffset--;
+            if (mIndexedEnd <= index) {
+                setIndexedRange(index, index + 1);
+            } else {
+                setIndexedRange(mIndexedStart <= index ? index : mIndexedStart + 1,
+                                mIndexedEnd + 1);
+            }
+        } else {
+            if (mIndexedStart >= index) {
+                setIndexedRange(index, index + 1);
+            } else {
+                setIndexedRange(mIndexedStart, mIndexedEnd >= index ? index + 1 : mIndexedEnd);
+            }
+        }
+        reindex(index);
+        modCount++;
+    }
+
+    @Override
+    public DataSnapshot remove(int index) {
+        copyIfShared();
+        DataSnapshot snapshot = mSnapshots.remove(index);
+        mKeyPositions.remove(snapshot.getKey());
+        if (index < mSnapshots.size() - index) {
+            // Keep the positions after the snapshot by moving the offset
+            mOffset++;
+            int start = Math.max(mIndexedStart, index + 1) - 1;
+            setIndexedRange(start, Math.max(mIndexedEnd - 1, start));
+        } else {
+            int start = Math.min(mIndexedStart, index);
+            setIndexedRange(start, Math.max(Math.min(mIndexedEnd, index), start));
+        }
+        modCount++;
+
+        return snapshot;
+    }
+
+    @NonNull
+    @Override
+    public List<DataSnapshot> toImmutableList() {
+        mIsShared = true;
+        return Collections.unmodifiableList(mSnapshots);
+    }
+
+    private void copyIfShared() {
+        if (!mIsShared) return;
+        mSnapshots = new ArrayList<>(mSnapshots);
+        mIsShared = false;
+    }
+
+    private void setIndexedRange(int start, int end) {
+        mIndexedStart = start;
+        mIndexedEnd = end;
+    }
+
+    @Override
+    public void clear() {
+        if (mIsShared) {
+            mSnapshots = new ArrayList<>();
+            mIsShared = false;
+        } else {
+            mSnapshots.clear();
+        }
+        mKeyPositions.clear();
+        mOffset = 0;
+        setIndexedRange(0, 0);
+        modCount++;
+    }
+}
@@ -0,0 +1,54 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+/**
+ * Handles joining two queries together when finding the joined ref needs asynchronous work, such
+ * as reading a shard map or a local cache.
+ * <p>
+ * Every key is resolved as soon as it is added, without waiting for earlier keys, and each key's
+ * data is placed at the key's position once it arrives. Tasks may therefore complete in any order.
+ *
+ * @see JoinResolver
+ */
+public interface AsyncJoinResolver {
+    /**
+     * Called after an {@link ChildEventListener#onChildAdded(DataSnapshot, String)} event from
+     * {@code keyRef}. The returned task's listeners are called on the main thread.
+     *
+     * @param keySnapshot the snapshot supplied in {@code onChildAdded}
+     * @return A task resolving to the ref containing the joined data of {@code keySnapshot}. The
+     * ref is listened to until the key is removed.
+     */
+    @NonNull
+    Task<DatabaseReference> onJoin(DataSnapshot keySnapshot);
+
+    /**
+     * Called when the task returned by {@link #onJoin(DataSnapshot)} fails. The key keeps its
+     * place in {@code keyRef} but has no data: it isn't shown, and it no longer keeps the array
+     * from reporting {@link ChangeEventListener#onDataChanged()}. It isn't resolved again unless it
+     * is removed from and added back to {@code keyRef}.
+     * <p>
+     * With {@link FirebaseIndexArray#setViewportJoinDistance(int)}, the key's row stays a
+     * placeholder instead, and the key is resolved again the next time the join window is updated
+     * while the key is inside it.
+     *
+     * @param keySnapshot the snapshot supplied to {@code onJoin}
+     * @param e           the task's exception
+     */
+    void onResolveFailed(DataSnapshot keySnapshot, Exception e);
+
+    /**
+     * Called when a key in {@code keyRef} could not be found at its resolved ref.
+     *
+     * @param snapshot the snapshot who's key could not be found
+     * @param index    index of a {@link DataSnapshot} in {@code keyRef} that could not be found
+     * @see JoinResolver#onJoinFailed(DataSnapshot, int)
+     */
+    void onJoinFailed(DataSnapshot snapshot, int index);
+}
@@ -1,19 +1,39 @@
 package com.firebase.ui.database;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.firebase.database.DataSnapshot;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * An extension of {@link ObservableSnapshotArray} that caches the result of {@link #getObject(int)}
  * so that repeated calls for the same key are not expensive (unless the underlying snapshot has
  * changed).
+ * <p>
+ * By default every parsed object is cached until its snapshot changes or is removed. Use {@link
+ * #setObjectCache(ObjectCache)} with an {@link LruObjectCache} to bound the memory used by large
+ * lists. Parsing can optionally be moved off the main thread with {@link
+ * #setParseExecutor(Executor)}.
  */
 public abstract class CachingObservableSnapshotArray<T> extends ObservableSnapshotArray<T> {
-    private Map<String, T> mObjectCache = new HashMap<>();
+    private ObjectCache<T> mObjectCache = new MapObjectCache<>();
+
+    private Executor mParseExecutor;
+    private Handler mMainHandler;
+    /**
+     * Parses that were handed to {@link #mParseExecutor} and whose result hasn't been published
+     * yet, by key. A result is only published if its parse is still the pending one for the key,
+     * which discards parses of snapshots that have since been changed or removed.
+     */
+    private Map<String, PendingParse> mPendingParses = new HashMap<>();
+
+    private DisplayEquivalence<T> mDisplayEquivalence;
 
     /**
      * @see ObservableSnapshotArray#ObservableSnapshotArray(Class)
@@ -29,36 +49,194 @@ public abstract class CachingObservableSnapshotArray<T> extends ObservableSnapsh
         super(parser);
     }
 
+    /**
+     * Replace the cache holding parsed objects. Objects evicted from the cache are parsed again the
+     * next time they are requested.
+     *
+     * @param cache the new cache, or null to cache every object
+     */
+    public void setObjectCache(@Nullable ObjectCache<T> cache) {
+        mObjectCache.clear();
+        mObjectCache = cache == null ? new MapObjectCache<T>() : cache;
+    }
+
+    /**
+     * Parse new and changed snapshots on the given executor instead of lazily on the main thread
+     * when they are first requested. Parsed objects are published to the cache on the main thread,
+     * so that {@link #getObject(int)} is usually a cache hit by the time an adapter binds the item.
+     * {@link #prefetch(int)} can be used to parse items ahead of time.
+     * <p>
+     * The {@link SnapshotParser} must be safe to call from the executor's threads; {@link
+     * ClassSnapshotParser} is.
+     *
+     * @param executor the executor on which to parse snapshots, or null to parse lazily on the
+     *                 calling thread
+     */
+    public void setParseExecutor(@Nullable Executor executor) {
+        mParseExecutor = executor;
+        mPendingParses.clear();
+        if (executor != null && mMainHandler == null) {
+            mMainHandler = new Handler(Looper.getMainLooper());
+        }
+    }
+
+    /**
+     * Drop {@link ChangeEventListener.EventType#CHANGED} events for children whose new object is
+     * equivalent to the previous one. Changed snapshots are then parsed right away, on the thread
+     * delivering the change, to be compared with the cached object.
+     *
+     * @param equivalence decides which changes are visible, or null to report every change
+     */
+    public void setDisplayEquivalence(@Nullable DisplayEquivalence<T> equivalence) {
+        mDisplayEquivalence = equivalence;
+    }
+
     @Override
     public T getObject(int index) {
-        String key = get(index).getKey();
+        String key = getKey(index);
 
         // Return from the cache if possible, otherwise populate the cache and return
-        if (mObjectCache.containsKey(key)) {
-            return mObjectCache.get(key);
-        } else {
-            T object = super.getObject(index);
-            mObjectCache.put(key, object);
-            return object;
+        T object = mObjectCache.get(key);
+        if (object == null) {
+            object = super.getObject(index);
+            if (object != null) mObjectCache.put(key, object);
+            mPendingParses.remove(key);
+        }
+        return object;
+    }
+
+    /**
+     * If a parse executor is set, parse the object at the given index in the background unless it
+     * is already cached or being parsed.
+     *
+     * @see #setParseExecutor(Executor)
+     */
+    @Override
+    public void prefetch(int index) {
+        if (mParseExecutor == null || index < 0 || index >= size()) return;
+
+        DataSnapshot snapshot = get(index);
+        if (mObjectCache.get(snapshot.getKey()) == null) parseInBackground(snapshot);
+    }
+
+    private void parseInBackground(final DataSnapshot snapshot) {
+        final String key = snapshot.getKey();
+        PendingParse pending = mPendingParses.get(key);
+        if (pending != null && pending.mSnapshot == snapshot) return;
+
+        final PendingParse parse = new PendingParse(snapshot);
+        mPendingParses.put(key, parse);
+        mParseExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T object;
+                try {
+                    object = mParser.parseSnapshot(snapshot);
+                } catch (RuntimeException e) {
+                    // Let the error surface on the main thread when the object is requested
+                    publish(key, parse, null, false);
+                    return;
+                }
+                publish(key, parse, object, true);
+            }
+        });
+    }
+
+    private void publish(final String key,
+                         final PendingParse parse,
+                         final T object,
+                         final boolean isParsed) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPendingParses.get(key) != parse) return; // Stale parse
+
+                mPendingParses.remove(key);
+                if (isParsed && object != null) mObjectCache.put(key, object);
+            }
+        });
+    }
+
+    /**
+     * A snapshot being parsed. Updating an item always starts a new parse, even when its snapshot
+     * is the same one, for example because the parser also reads data from elsewhere.
+     */
+    private static final class PendingParse {
+        private final DataSnapshot mSnapshot;
+
+        public PendingParse(DataSnapshot snapshot) {
+            mSnapshot = snapshot;
         }
     }
 
     protected void clearData() {
         getSnapshots().clear();
+        onSnapshotsChanged();
         mObjectCache.clear();
+        mPendingParses.clear();
+    }
+
+    protected void addData(int index, DataSnapshot snapshot) {
+        getSnapshots().add(index, snapshot);
+        onSnapshotsChanged();
+        if (mParseExecutor != null) parseInBackground(snapshot);
     }
 
     protected DataSnapshot removeData(int index) {
         DataSnapshot snapshot = getSnapshots().remove(index);
-        if (snapshot != null) {
-            mObjectCache.remove(snapshot.getKey());
-        }
+        onSnapshotsChanged();
+        if (snapshot != null) evictObject(snapshot.getKey());
 
         return snapshot;
     }
 
     protected void updateData(int index, DataSnapshot snapshot) {
-        getSnapshots().set(index, snapshot);
-        mObjectCache.remove(snapshot.getKey());
+        rememberReplacedSnapshot(getSnapshots().set(index, snapshot));
+        onSnapshotsChanged();
+        evictObject(snapshot.getKey());
+        if (mParseExecutor != null) parseInBackground(snapshot);
+    }
+
+    /**
+     * Like {@link #updateData(int, DataSnapshot)}, but also tell whether the change is visible
+     * according to the {@link #setDisplayEquivalence(DisplayEquivalence) display equivalence}.
+     *
+     * @return false if no {@link ChangeEventListener.EventType#CHANGED} event should be sent
+     */
+    protected boolean updateDataAndCompare(int index, DataSnapshot snapshot) {
+        if (mDisplayEquivalence == null) {
+            updateData(index, snapshot);
+            return true;
+        }
+
+        String key = snapshot.getKey();
+        T previous = mObjectCache.get(key);
+        if (previous == null) previous = mParser.parseSnapshot(getSnapshots().get(index));
+        T object = mParser.parseSnapshot(snapshot);
+
+        rememberReplacedSnapshot(getSnapshots().set(index, snapshot));
+        onSnapshotsChanged();
+        evictObject(key);
+        if (object != null) mObjectCache.put(key, object);
+
+        return previous == null
+                || object == null
+                || !mDisplayEquivalence.isEquivalent(previous, object);
+    }
+
+    /**
+     * Forget the object parsed for the given key, if any, so that it is parsed again.
+     */
+    protected void evictObject(String key) {
+        mObjectCache.remove(key);
+        mPendingParses.remove(key);
+    }
+
+    /**
+     * @return true if both snapshots hold the same data, including priorities
+     */
+    static boolean isSameValue(DataSnapshot a, DataSnapshot b) {
+        Object value = a.getValue(true);
+        return value == null ? b.getValue(true) == null : value.equals(b.getValue(true));
     }
 }
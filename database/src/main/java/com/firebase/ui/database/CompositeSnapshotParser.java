@@ -0,0 +1,19 @@
+package com.firebase.ui.database;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.List;
+
+/**
+ * Combines the snapshots joined by a {@link MultiJoinResolver} into a single model object.
+ */
+public interface CompositeSnapshotParser<T> {
+    /**
+     * This method parses the joined DataSnapshots into the requested type.
+     *
+     * @param snapshots the snapshots of the refs returned by {@link MultiJoinResolver#onJoin}, in
+     *                  the same order. Snapshots that haven't been loaded yet are null.
+     * @return the model extracted from the DataSnapshots
+     */
+    T parseSnapshots(List<DataSnapshot> snapshots);
+}
@@ -0,0 +1,22 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Decides whether a changed child still looks the same in the list, for example because only a
+ * read receipt or a server timestamp changed. Such changes don't produce {@link
+ * ChangeEventListener.EventType#CHANGED} events, so adapters don't rebind the row.
+ * <p>
+ * To compare whole objects, return {@code oldObject.equals(newObject)}.
+ *
+ * @param <T> the type of the parsed objects
+ * @see CachingObservableSnapshotArray#setDisplayEquivalence(DisplayEquivalence)
+ */
+public interface DisplayEquivalence<T> {
+    /**
+     * @param oldObject the object parsed from the previous snapshot
+     * @param newObject the object parsed from the changed snapshot
+     * @return true if the row doesn't need to be shown again
+     */
+    boolean isEquivalent(@NonNull T oldObject, @NonNull T newObject);
+}
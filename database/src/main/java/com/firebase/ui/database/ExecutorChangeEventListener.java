@@ -0,0 +1,109 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.RestrictTo;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forwards the events it receives on the main thread to another listener on an {@link Executor}.
+ * Events are captured as immutable records and delivered one at a time, in order, even if the
+ * executor has several threads.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+class ExecutorChangeEventListener implements ChangeEventListener {
+    private final ChangeEventListener mListener;
+    private final Executor mExecutor;
+
+    private final Queue<EventRecord> mEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mIsDraining = new AtomicBoolean();
+    private volatile boolean mIsRemoved;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                EventRecord event;
+                while ((event = mEvents.poll()) != null) {
+                    if (!mIsRemoved) event.deliver(mListener);
+                }
+                mIsDraining.set(false);
+                // Events posted after the queue was found empty but before the flag was cleared
+            } while (!mEvents.isEmpty() && mIsDraining.compareAndSet(false, true));
+        }
+    };
+
+    public ExecutorChangeEventListener(ChangeEventListener listener, Executor executor) {
+        mListener = Preconditions.checkNotNull(listener);
+        mExecutor = Preconditions.checkNotNull(executor);
+    }
+
+    /**
+     * Drop the events which haven't been delivered yet.
+     */
+    public void remove() {
+        mIsRemoved = true;
+        mEvents.clear();
+    }
+
+    @Override
+    public void onChildChanged(EventType type, DataSnapshot snapshot, int index, int oldIndex) {
+        post(new EventRecord(type, snapshot, index, oldIndex, null));
+    }
+
+    @Override
+    public void onDataChanged() {
+        post(new EventRecord(null, null, -1, -1, null));
+    }
+
+    @Override
+    public void onCancelled(DatabaseError error) {
+        post(new EventRecord(null, null, -1, -1, error));
+    }
+
+    private void post(EventRecord event) {
+        if (mIsRemoved) return;
+
+        mEvents.add(event);
+        if (mIsDraining.compareAndSet(false, true)) mExecutor.execute(mDrain);
+    }
+
+    /**
+     * An event as it was sent on the main thread. Child events have a type, data changes and
+     * cancellations don't.
+     */
+    private static final class EventRecord {
+        private final EventType mType;
+        private final DataSnapshot mSnapshot;
+        private final int mIndex;
+        private final int mOldIndex;
+        private final DatabaseError mError;
+
+        public EventRecord(EventType type,
+                           DataSnapshot snapshot,
+                           int index,
+                           int oldIndex,
+                           DatabaseError error) {
+            mType = type;
+            mSnapshot = snapshot;
+            mIndex = index;
+            mOldIndex = oldIndex;
+            mError = error;
+        }
+
+        public void deliver(ChangeEventListener listener) {
+            if (mType != null) {
+                listener.onChildChanged(mType, mSnapshot, mIndex, mOldIndex);
+            } else if (mError != null) {
+                listener.onCancelled(mError);
+            } else {
+                listener.onDataChanged();
+            }
+        }
+    }
+}
@@ -14,23 +14,71 @@
 
 package com.firebase.ui.database;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 
 /**
  * This class implements a collection on top of a Firebase location.
+ * <p>
+ * The initial load is held back until the query has fully loaded and then sent as a single range,
+ * see {@link RangeChangeEventListener}.
  */
 public class FirebaseArray<T> extends CachingObservableSnapshotArray<T> implements ChildEventListener, ValueEventListener {
+    private static final long SAVE_INTERVAL_MILLIS = 10000;
+    private static final long NANOS_PER_MILLI = 1000000;
+
     private Query mQuery;
-    private List<DataSnapshot> mSnapshots = new ArrayList<>();
+    private SnapshotStorage mSnapshots;
+
+    private SnapshotDiskCache<T> mDiskCache;
+    private Handler mSaveHandler;
+    private boolean mIsSavePending;
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+
+    private long mFrameBudgetNanos;
+    private final Queue<QueuedEvent> mQueuedEvents = new ArrayDeque<>();
+    /** The latest value event, sent once every queued child event has been applied. */
+    private DataSnapshot mQueuedDataChange;
+    private boolean mIsApplyingQueue;
+    private final FrameScheduler mQueueScheduler = new FrameScheduler(new Runnable() {
+        @Override
+        public void run() {
+            applyQueuedEvents();
+        }
+    });
+
+    /**
+     * The rows shown while waiting for the first complete load of {@link #mQuery}, or null. These
+     * are either the rows of the previous query, placeholders restored from {@link #mDiskCache},
+     * which have a null snapshot, or no rows at all. The live data meanwhile loads silently into
+     * {@link #mSnapshots}.
+     */
+    private List<DataSnapshot> mShownSnapshots;
+    private List<String> mShownKeys;
+    /** The restored rows among the shown rows, by key. */
+    private Map<String, SnapshotDiskCache.Row<T>> mRestoredRows;
 
     /**
      * Create a new FirebaseArray that parses snapshots as members of a given class.
@@ -42,7 +90,7 @@ public class FirebaseArray<T> extends CachingObservableSnapshotArray<T> implemen
      */
     public FirebaseArray(Query query, Class<T> tClass) {
         super(tClass);
-        init(query);
+        init(query, new ArraySnapshotStorage());
     }
 
     /**
@@ -52,12 +100,25 @@ public class FirebaseArray<T> extends CachingObservableSnapshotArray<T> implemen
      * @see FirebaseArray#FirebaseArray(Query, Class)
      */
     public FirebaseArray(Query query, SnapshotParser<T> parser) {
+        this(query, parser, new ArraySnapshotStorage());
+    }
+
+    /**
+     * Create a new FirebaseArray with a custom {@link SnapshotParser} and {@link
+     * SnapshotStorage}.
+     *
+     * @param storage the list in which snapshots will be kept. Use a {@link TreeSnapshotStorage}
+     *                for very large lists whose children are often inserted or moved in the middle.
+     * @see FirebaseArray#FirebaseArray(Query, SnapshotParser)
+     */
+    public FirebaseArray(Query query, SnapshotParser<T> parser, SnapshotStorage storage) {
         super(parser);
-        init(query);
+        init(query, storage);
     }
 
-    private void init(Query query) {
+    private void init(Query query, SnapshotStorage storage) {
         mQuery = query;
+        mSnapshots = Preconditions.checkNotNull(storage);
     }
 
     @Override
@@ -65,9 +126,149 @@ public class FirebaseArray<T> extends CachingObservableSnapshotArray<T> implemen
         return mSnapshots;
     }
 
+    /**
+     * Spread the processing of large bursts of child events, such as the initial load of a big
+     * query, over several frames. Events are queued as soon as they arrive and then applied, in
+     * order, for at most the given time per frame. {@link ChangeEventListener#onDataChanged()} is
+     * only called once the queue is empty.
+     *
+     * @param millis the time to spend applying events per frame, for example 4, or 0 to apply every
+     *               event as soon as it arrives
+     */
+    public void setFrameBudgetMillis(long millis) {
+        mFrameBudgetNanos = Math.max(millis, 0) * NANOS_PER_MILLI;
+        if (mFrameBudgetNanos == 0) applyQueuedEvents();
+    }
+
+    /**
+     * @return true if the event was queued and must not be applied yet
+     */
+    private boolean enqueue(QueuedEvent.Type type, Object data, String previousChildKey) {
+        if (mFrameBudgetNanos == 0 || mIsApplyingQueue) return false;
+
+        if (type == QueuedEvent.Type.VALUE) {
+            mQueuedDataChange = (DataSnapshot) data;
+        } else {
+            mQueuedEvents.add(new QueuedEvent(type, data, previousChildKey));
+        }
+        mQueueScheduler.schedule();
+        return true;
+    }
+
+    private void applyQueuedEvents() {
+        mQueueScheduler.cancel();
+        long deadline = System.nanoTime() + mFrameBudgetNanos;
+
+        mIsApplyingQueue = true;
+        try {
+            while (!mQueuedEvents.isEmpty()) {
+                if (mFrameBudgetNanos > 0 && System.nanoTime() >= deadline) {
+                    mQueueScheduler.schedule();
+                    return;
+                }
+                mQueuedEvents.poll().apply(this);
+            }
+
+            if (mQueuedDataChange != null) {
+                DataSnapshot dataSnapshot = mQueuedDataChange;
+                mQueuedDataChange = null;
+                onDataChange(dataSnapshot);
+            }
+        } finally {
+            mIsApplyingQueue = false;
+        }
+    }
+
+    private void clearQueuedEvents() {
+        mQueueScheduler.cancel();
+        mQueuedEvents.clear();
+        mQueuedDataChange = null;
+    }
+
+    /**
+     * Show the contents stored in the given cache as soon as this array starts listening, and keep
+     * the cache up to date with the loaded data. Once the query has fully loaded, the restored rows
+     * are reconciled with the live data: only rows which were added, removed, moved or whose value
+     * changed since they were stored produce events.
+     * <p>
+     * Until then the restored rows are placeholders, see {@link #isPlaceholder(int)}. They are only
+     * shown while every listener is a {@link PlaceholderEventListener}, as the adapters are: adding
+     * any other listener replaces them with the rows loaded so far.
+     * <p>
+     * The cache is saved when the last listener is removed and at most every few seconds while
+     * listening. The snapshots are parsed again for it in the background, so the parser must be
+     * safe to call from another thread; {@link ClassSnapshotParser} is. Must be called before
+     * listeners are added.
+     *
+     * @param cache the cache to restore from and save to, or null to disable disk caching
+     */
+    public void setDiskCache(@Nullable SnapshotDiskCache<T> cache) {
+        if (isListening()) {
+            throw new IllegalStateException("The disk cache must be set before listening");
+        }
+
+        mDiskCache = cache;
+        if (cache != null && mSaveHandler == null) {
+            mSaveHandler = new Handler(Looper.getMainLooper());
+        }
+    }
+
+    /**
+     * Replace the query whose children this array contains, for example when the user changes a
+     * filter. While listening, the current rows stay in place until the new query has fully loaded
+     * and are then reconciled with its children: only rows which were added, removed, moved or
+     * whose data differs produce events, so adapters keep the views of unchanged rows.
+     * <p>
+     * The {@link #setDiskCache(SnapshotDiskCache) disk cache}, if any, holds the rows of the
+     * original query, so the array saves it one last time and then stops using it.
+     *
+     * @param query the new query
+     */
+    public void setQuery(@NonNull Query query) {
+        Preconditions.checkNotNull(query);
+        if (!isListening()) {
+            mQuery = query;
+            return;
+        }
+
+        mQuery.removeEventListener((ValueEventListener) this);
+        mQuery.removeEventListener((ChildEventListener) this);
+        clearQueuedEvents();
+        if (mDiskCache != null) {
+            if (mIsSavePending) save();
+            mDiskCache = null;
+        }
+
+        // Rows still waiting for an earlier load stay shown as they are
+        if (!isReconciling()) {
+            mShownSnapshots = new ArrayList<>(mSnapshots);
+            mShownKeys = new ArrayList<>(mSnapshots.size());
+            for (DataSnapshot snapshot : mSnapshots) {
+                mShownKeys.add(snapshot.getKey());
+            }
+            mRestoredRows = new HashMap<>();
+        }
+        // Parsed objects are kept, reconciliation evicts those whose data changed
+        mSnapshots.clear();
+        onSnapshotsChanged();
+
+        mQuery = query;
+        mQuery.addChildEventListener(this);
+        mQuery.addValueEventListener(this);
+    }
+
     @Override
     public ChangeEventListener addChangeEventListener(@NonNull ChangeEventListener listener) {
         boolean wasListening = isListening();
+        boolean canShowPlaceholders = listener instanceof PlaceholderEventListener;
+        // Restore before adding the listener so that it receives the restored rows at once
+        if (!wasListening) {
+            if (mDiskCache != null && canShowPlaceholders) restore();
+            // Otherwise hold the initial load back until it is complete, to send it as one range
+            if (!isReconciling()) showNoRows();
+        } else if (!canShowPlaceholders && hasPlaceholders()) {
+            dropPlaceholders();
+        }
         super.addChangeEventListener(listener);
 
         // Only start listening when the first listener is added
@@ -87,55 +288,279 @@ public class FirebaseArray<T> extends CachingObservableSnapshotArray<T> implemen
         if (!isListening()) {
             mQuery.removeEventListener((ValueEventListener) this);
             mQuery.removeEventListener((ChildEventListener) this);
+            clearQueuedEvents();
 
+            if (mDiskCache != null) save();
+            clearShownRows();
             clearData();
         }
     }
 
+    private void restore() {
+        Map<String, SnapshotDiskCache.Row<T>> rows = mDiskCache.read();
+        if (rows.isEmpty()) return;
+
+        mRestoredRows = rows;
+        mShownKeys = new ArrayList<>(rows.keySet());
+        mShownSnapshots = new ArrayList<>(mShownKeys.size());
+        for (int i = 0; i < mShownKeys.size(); i++) {
+            mShownSnapshots.add(null);
+        }
+        onSnapshotsChanged();
+    }
+
+    private void showNoRows() {
+        mShownKeys = new ArrayList<>();
+        mShownSnapshots = new ArrayList<>();
+        mRestoredRows = new HashMap<>();
+    }
+
+    private boolean isReconciling() {
+        return mShownKeys != null;
+    }
+
+    private boolean hasPlaceholders() {
+        return isReconciling() && !mRestoredRows.isEmpty();
+    }
+
+    /**
+     * Replace the shown rows with the rows loaded so far, for listeners which can't handle
+     * placeholders. The rest of the load is then sent as usual.
+     */
+    private void dropPlaceholders() {
+        List<DataSnapshot> shown = mShownSnapshots;
+        // Objects cached for rows of a previous query may be stale
+        for (String key : mShownKeys) {
+            evictObject(key);
+        }
+        clearShownRows();
+        onSnapshotsChanged();
+
+        notifyChangeEventListenersOfRange(
+                RangeChangeEventListener.RangeEventType.RANGE_REMOVED, 0, shown);
+        notifyChangeEventListenersOfRange(
+                RangeChangeEventListener.RangeEventType.RANGE_INSERTED,
+                0,
+                new ArrayList<>(mSnapshots));
+    }
+
+    private void clearShownRows() {
+        mShownSnapshots = null;
+        mShownKeys = null;
+        mRestoredRows = null;
+    }
+
+    /**
+     * Turn the shown rows into the loaded data with as few events as possible.
+     */
+    private void reconcile() {
+        List<String> keys = mShownKeys;
+        List<DataSnapshot> snapshots = mShownSnapshots;
+
+        // Remove rows that no longer exist, from the end so that earlier indexes don't shift
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            if (mSnapshots.getIndexForKey(keys.get(i)) == -1) {
+                String key = keys.remove(i);
+                mRestoredRows.remove(key);
+                evictObject(key);
+                DataSnapshot snapshot = snapshots.remove(i);
+                onSnapshotsChanged();
+                notifyChangeEventListeners(ChangeEventListener.EventType.REMOVED, snapshot, i);
+            }
+        }
+
+        if (keys.isEmpty()) {
+            // Typically the initial load
+            clearShownRows();
+            onSnapshotsChanged();
+            notifyChangeEventListenersOfRange(
+                    RangeChangeEventListener.RangeEventType.RANGE_INSERTED,
+                    0,
+                    new ArrayList<>(mSnapshots));
+            return;
+        }
+
+        // Rows before i are final, and the rows after them are the shown rows which haven't been
+        // placed yet, in their original order. Their positions among each other are kept in a
+        // tree so that each row is found in O(log n).
+        OrderStatisticTree<String> unplaced = new OrderStatisticTree<>();
+        Map<String, OrderStatisticTree.Node<String>> unplacedNodes = new HashMap<>();
+        for (String key : keys) {
+            unplacedNodes.put(key, unplaced.insertNode(unplaced.size(), key));
+        }
+
+        for (int i = 0; i < mSnapshots.size(); i++) {
+            DataSnapshot snapshot = mSnapshots.get(i);
+            String key = snapshot.getKey();
+
+            OrderStatisticTree.Node<String> node = unplacedNodes.remove(key);
+            if (node == null) {
+                keys.add(i, key);
+                snapshots.add(i, snapshot);
+                onSnapshotsChanged();
+                notifyChangeEventListeners(ChangeEventListener.EventType.ADDED, snapshot, i);
+                continue;
+            }
+
+            int oldIndex = i + unplaced.indexOf(node);
+            unplaced.removeNode(node);
+            DataSnapshot previous;
+            if (oldIndex != i) {
+                keys.add(i, keys.remove(oldIndex));
+                previous = snapshots.remove(oldIndex);
+                snapshots.add(i, snapshot);
+                notifyChangeEventListeners(
+                        ChangeEventListener.EventType.MOVED, snapshot, i, oldIndex);
+            } else {
+                previous = snapshots.set(i, snapshot);
+            }
+            onSnapshotsChanged();
+
+            boolean isChanged;
+            if (previous == null) {
+                // Comparing fingerprints doesn't need to parse the live snapshot
+                SnapshotDiskCache.Row<T> restored = mRestoredRows.remove(key);
+                isChanged = restored == null
+                        || restored.mFingerprint != SnapshotDiskCache.fingerprint(snapshot);
+            } else {
+                isChanged = !isSameValue(previous, snapshot);
+                // The cached object was parsed from the previous snapshot
+                if (isChanged) evictObject(key);
+            }
+            if (isChanged) {
+                rememberReplacedSnapshot(previous);
+                notifyChangeEventListeners(ChangeEventListener.EventType.CHANGED, snapshot, i);
+            }
+        }
+
+        clearShownRows();
+    }
+
+    /**
+     * Save the loaded data at most once per interval, however often it changes.
+     */
+    private void scheduleSave() {
+        if (mIsSavePending) return;
+        mSaveHandler.postDelayed(mSaveRunnable, SAVE_INTERVAL_MILLIS);
+        mIsSavePending = true;
+    }
+
+    private void save() {
+        mSaveHandler.removeCallbacks(mSaveRunnable);
+        mIsSavePending = false;
+        // The cache still holds the rows shown until the load completes
+        if (isReconciling()) return;
+
+        mDiskCache.write(getImmutableSnapshots(), mParser);
+    }
+
+    @Override
+    public DataSnapshot get(int index) {
+        return isReconciling() ? mShownSnapshots.get(index) : super.get(index);
+    }
+
+    @Override
+    public int size() {
+        return isReconciling() ? mShownSnapshots.size() : super.size();
+    }
+
+    @NonNull
+    @Override
+    protected List<DataSnapshot> getImmutableSnapshots() {
+        if (isReconciling()) return Collections.unmodifiableList(new ArrayList<>(mShownSnapshots));
+        return super.getImmutableSnapshots();
+    }
+
+    @Override
+    protected int indexOfKey(String key) {
+        return isReconciling() ? mShownKeys.indexOf(key) : mSnapshots.getIndexForKey(key);
+    }
+
+    @Override
+    public String getKey(int index) {
+        return isReconciling() ? mShownKeys.get(index) : super.getKey(index);
+    }
+
+    @Override
+    public DatabaseReference getRef(int index) {
+        if (isPlaceholder(index)) {
+            return mQuery.getRef().child(mShownKeys.get(index));
+        }
+        return super.getRef(index);
+    }
+
+    @Override
+    public T getObject(int index) {
+        if (isPlaceholder(index)) return mRestoredRows.get(mShownKeys.get(index)).mObject;
+        return super.getObject(index);
+    }
+
+    @Override
+    public boolean isPlaceholder(int index) {
+        return isReconciling() && mShownSnapshots.get(index) == null;
+    }
+
+    @Override
+    public void prefetch(int index) {
+        if (index >= 0 && index < size() && isPlaceholder(index)) return;
+        super.prefetch(index);
+    }
+
     @Override
     public void onChildAdded(DataSnapshot snapshot, String previousChildKey) {
         if (!isListening()) return;
+        if (enqueue(QueuedEvent.Type.ADDED, snapshot, previousChildKey)) return;
 
         int index = 0;
         if (previousChildKey != null) {
             index = getIndexForKey(previousChildKey) + 1;
         }
 
-        mSnapshots.add(index, snapshot);
+        addData(index, snapshot);
 
+        if (isReconciling()) return;
         notifyChangeEventListeners(ChangeEventListener.EventType.ADDED, snapshot, index);
     }
 
     @Override
     public void onChildChanged(DataSnapshot snapshot, String previousChildKey) {
         if (!isListening()) return;
+        if (enqueue(QueuedEvent.Type.CHANGED, snapshot, previousChildKey)) return;
 
         int index = getIndexForKey(snapshot.getKey());
 
-        updateData(index, snapshot);
-        notifyChangeEventListeners(ChangeEventListener.EventType.CHANGED, snapshot, index);
+        if (isReconciling()) {
+            updateData(index, snapshot);
+        } else if (updateDataAndCompare(index, snapshot)) {
+            notifyChangeEventListeners(ChangeEventListener.EventType.CHANGED, snapshot, index);
+        }
     }
 
     @Override
     public void onChildRemoved(DataSnapshot snapshot) {
         if (!isListening()) return;
+        if (enqueue(QueuedEvent.Type.REMOVED, snapshot, null)) return;
 
         int index = getIndexForKey(snapshot.getKey());
 
         removeData(index);
+        if (isReconciling()) return;
         notifyChangeEventListeners(ChangeEventListener.EventType.REMOVED, snapshot, index);
     }
 
     @Override
     public void onChildMoved(DataSnapshot snapshot, String previousChildKey) {
         if (!isListening()) return;
+        if (enqueue(QueuedEvent.Type.MOVED, snapshot, previousChildKey)) return;
 
         int oldIndex = getIndexForKey(snapshot.getKey());
         mSnapshots.remove(oldIndex);
 
         int newIndex = previousChildKey == null ? 0 : (getIndexForKey(previousChildKey) + 1);
         mSnapshots.add(newIndex, snapshot);
+        onSnapshotsChanged();
 
+        if (isReconciling()) return;
         notifyChangeEventListeners(ChangeEventListener.EventType.MOVED,
                                    snapshot,
                                    newIndex,
@@ -144,24 +569,65 @@ public class FirebaseArray<T> extends CachingObservableSnapshotArray<T> implemen
 
     @Override
     public void onDataChange(DataSnapshot dataSnapshot) {
+        if (enqueue(QueuedEvent.Type.VALUE, dataSnapshot, null)) return;
+
+        if (isReconciling()) reconcile();
+        if (mDiskCache != null && isListening()) scheduleSave();
         notifyListenersOnDataChanged();
     }
 
     @Override
     public void onCancelled(DatabaseError error) {
+        if (enqueue(QueuedEvent.Type.CANCELLED, error, null)) return;
+
         notifyListenersOnCancelled(error);
     }
 
-    private int getIndexForKey(String key) {
-        int index = 0;
-        for (DataSnapshot snapshot : mSnapshots) {
-            if (snapshot.getKey().equals(key)) {
-                return index;
-            } else {
-                index++;
+    /**
+     * A database event waiting to be applied.
+     */
+    private static final class QueuedEvent {
+        enum Type {
+            ADDED, CHANGED, REMOVED, MOVED, VALUE, CANCELLED
+        }
+
+        private final Type mType;
+        private final Object mData;
+        private final String mPreviousChildKey;
+
+        public QueuedEvent(Type type, Object data, String previousChildKey) {
+            mType = type;
+            mData = data;
+            mPreviousChildKey = previousChildKey;
+        }
+
+        public void apply(FirebaseArray<?> array) {
+            switch (mType) {
+                case ADDED:
+                    array.onChildAdded((DataSnapshot) mData, mPreviousChildKey);
+                    break;
+                case CHANGED:
+                    array.onChildChanged((DataSnapshot) mData, mPreviousChildKey);
+                    break;
+                case REMOVED:
+                    array.onChildRemoved((DataSnapshot) mData);
+                    break;
+                case MOVED:
+                    array.onChildMoved((DataSnapshot) mData, mPreviousChildKey);
+                    break;
+                case CANCELLED:
+                    array.onCancelled((DatabaseError) mData);
+                    break;
+                default:
+                    throw new IllegalStateException("Incomplete case statement");
             }
         }
-        throw new IllegalArgumentException("Key not found");
+    }
+
+    private int getIndexForKey(String key) {
+        int index = mSnapshots.getIndexForKey(key);
+        if (index == -1) throw new IllegalArgumentException("Key not found");
+        return index;
     }
 
     @Override
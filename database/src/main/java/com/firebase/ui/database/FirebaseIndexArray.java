@@ -16,9 +16,12 @@ package com.firebase.ui.database;
 
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
@@ -26,9 +29,14 @@ import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> implements ChangeEventListener {
     private static final String TAG = "FirebaseIndexArray";
@@ -38,7 +46,36 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
 
     private FirebaseArray<String> mKeySnapshots;
     private JoinResolver mJoinResolver;
-    private List<DataSnapshot> mDataSnapshots = new ArrayList<>();
+    private AsyncJoinResolver mAsyncJoinResolver;
+    /**
+     * With an {@link AsyncJoinResolver}, the resolution in progress for each key. Completed tasks
+     * are ignored unless they are still the key's pending one.
+     */
+    private Map<String, Task<DatabaseReference>> mPendingResolutions = new HashMap<>();
+    private MultiJoinResolver mMultiJoinResolver;
+    /**
+     * With a {@link MultiJoinResolver}, the latest snapshot of each of a key's refs, in the
+     * resolver's order. Read by the parser, which may run off the main thread.
+     */
+    private Map<String, List<DataSnapshot>> mCompositeParts;
+    /**
+     * With a {@link MultiJoinResolver}, the listeners on every ref of a key but the first.
+     */
+    private Map<String, List<PartListener>> mPartListeners = new HashMap<>();
+    private JoinListenerPool mPartPool;
+    /**
+     * Keys with a composite item that changed since the last frame.
+     */
+    private Set<String> mChangedCompositeKeys = new HashSet<>();
+    private FrameScheduler mCompositeChangeNotifier;
+    private final SnapshotStorage mDataSnapshots;
+
+    /**
+     * Mirrors the order of {@link #mKeySnapshots}, with every key whose data is present in {@link
+     * #mDataSnapshots} marked. The data index of a key is the number of marked keys before it.
+     */
+    private OrderStatisticTree<String> mKeyPositions = new OrderStatisticTree<>();
+    private Map<String, OrderStatisticTree.Node<String>> mKeyNodes = new HashMap<>();
 
     /**
      * When keys are added in {@link FirebaseArray}, we need to fetch the data async. This list
@@ -53,6 +90,44 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
      */
     private boolean mHasPendingMoveOrDelete;
 
+    /**
+     * How many rows away from the last bound one keys are joined, or -1 to join every key. See
+     * {@link #setViewportJoinDistance(int)}.
+     */
+    private int mJoinDistance = -1;
+    private T mPlaceholder;
+    private int mLastBoundIndex;
+    /**
+     * In viewport mode or with an {@link AsyncJoinResolver}, the joined ref of every key currently
+     * listened to.
+     */
+    private Map<String, DatabaseReference> mJoinedRefs = new HashMap<>();
+    /**
+     * In viewport mode, the keys whose row holds joined data rather than a placeholder.
+     */
+    private Set<String> mLoadedKeys = new HashSet<>();
+    private FrameScheduler mJoinWindowUpdater;
+
+    /**
+     * The maximum number of keys joined by a single range query, or -1 to listen to every key's
+     * ref separately. See {@link #setBulkJoinChunkSize(int)}.
+     */
+    private int mBulkJoinChunkSize = -1;
+    /**
+     * In bulk join mode, keys waiting for the next batch of range queries.
+     */
+    private Set<String> mPendingBulkJoins = new HashSet<>();
+    /**
+     * In bulk join mode, the range query listening to each joined key.
+     */
+    private Map<String, JoinChunk> mJoinChunks = new HashMap<>();
+    private FrameScheduler mBulkJoinFlusher;
+
+    /**
+     * Shares the listeners on joined refs with other arrays, or null to listen to them directly.
+     */
+    private JoinListenerPool mJoinListenerPool;
+
     /**
      * Create a new FirebaseIndexArray with a custom {@link SnapshotParser} and {@link
      * JoinResolver}.
@@ -69,6 +144,26 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
                               SnapshotParser<T> parser,
                               JoinResolver resolver) {
         super(parser);
+        mDataSnapshots = new ArraySnapshotStorage();
+        init(keyQuery, dataRef, resolver);
+    }
+
+    /**
+     * Create a new FirebaseIndexArray with a custom {@link SnapshotParser}, {@link JoinResolver}
+     * and {@link SnapshotStorage}.
+     *
+     * @param storage the list in which joined snapshots will be kept
+     * @see FirebaseIndexArray#FirebaseIndexArray(Query, DatabaseReference, SnapshotParser,
+     * JoinResolver)
+     * @see FirebaseArray#FirebaseArray(Query, SnapshotParser, SnapshotStorage)
+     */
+    public FirebaseIndexArray(Query keyQuery,
+                              DatabaseReference dataRef,
+                              SnapshotParser<T> parser,
+                              JoinResolver resolver,
+                              SnapshotStorage storage) {
+        super(parser);
+        mDataSnapshots = Preconditions.checkNotNull(storage);
         init(keyQuery, dataRef, resolver);
     }
 
@@ -85,6 +180,73 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
                               Class<T> tClass,
                               JoinResolver resolver) {
         super(tClass);
+        mDataSnapshots = new ArraySnapshotStorage();
+        init(keyQuery, dataRef, resolver);
+    }
+
+    /**
+     * Create a new FirebaseIndexArray with a custom {@link SnapshotParser} whose joined refs are
+     * found asynchronously.
+     *
+     * @param resolver resolves the ref of each key's data, see {@link AsyncJoinResolver}
+     * @see FirebaseIndexArray#FirebaseIndexArray(Query, DatabaseReference, SnapshotParser,
+     * JoinResolver)
+     */
+    public FirebaseIndexArray(Query keyQuery,
+                              DatabaseReference dataRef,
+                              SnapshotParser<T> parser,
+                              AsyncJoinResolver resolver) {
+        super(parser);
+        mDataSnapshots = new ArraySnapshotStorage();
+        init(keyQuery, dataRef, resolver);
+    }
+
+    /**
+     * Create a new FirebaseIndexArray that parses snapshots as members of a given class and whose
+     * joined refs are found asynchronously.
+     *
+     * @see FirebaseIndexArray#FirebaseIndexArray(Query, DatabaseReference, SnapshotParser,
+     * AsyncJoinResolver)
+     * @see ObservableSnapshotArray#ObservableSnapshotArray(Class)
+     */
+    public FirebaseIndexArray(Query keyQuery,
+                              DatabaseReference dataRef,
+                              Class<T> tClass,
+                              AsyncJoinResolver resolver) {
+        super(tClass);
+        mDataSnapshots = new ArraySnapshotStorage();
+        init(keyQuery, dataRef, resolver);
+    }
+
+    /**
+     * Create a new FirebaseIndexArray whose items combine the data of several refs per key. Changes
+     * to any of an item's refs are coalesced into at most one {@link
+     * ChangeEventListener.EventType#CHANGED} event per frame.
+     *
+     * @param parser   combines the snapshots of a key's refs into its model object
+     * @param resolver returns the refs to join for each key, see {@link MultiJoinResolver}
+     * @see FirebaseIndexArray#FirebaseIndexArray(Query, DatabaseReference, SnapshotParser,
+     * JoinResolver)
+     */
+    public FirebaseIndexArray(Query keyQuery,
+                              DatabaseReference dataRef,
+                              CompositeSnapshotParser<T> parser,
+                              MultiJoinResolver resolver) {
+        this(keyQuery,
+             dataRef,
+             parser,
+             resolver,
+             new ConcurrentHashMap<String, List<DataSnapshot>>());
+    }
+
+    private FirebaseIndexArray(Query keyQuery,
+                               DatabaseReference dataRef,
+                               CompositeSnapshotParser<T> parser,
+                               MultiJoinResolver resolver,
+                               Map<String, List<DataSnapshot>> parts) {
+        super(new CompositeParser<>(parser, parts));
+        mDataSnapshots = new ArraySnapshotStorage();
+        mCompositeParts = parts;
         init(keyQuery, dataRef, resolver);
     }
 
@@ -96,6 +258,7 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
      */
     public FirebaseIndexArray(Query keyQuery, DatabaseReference dataRef, Class<T> tClass) {
         super(tClass);
+        mDataSnapshots = new ArraySnapshotStorage();
         init(keyQuery, dataRef);
     }
 
@@ -108,6 +271,7 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
      */
     public FirebaseIndexArray(Query keyQuery, DatabaseReference dataRef, SnapshotParser<T> parser) {
         super(parser);
+        mDataSnapshots = new ArraySnapshotStorage();
         init(keyQuery, dataRef);
     }
 
@@ -116,6 +280,18 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
         init(keyQuery, dataRef, new DefaultJoinResolver());
     }
 
+    @CallSuper
+    protected void init(Query keyQuery, DatabaseReference dataRef, AsyncJoinResolver resolver) {
+        mAsyncJoinResolver = Preconditions.checkNotNull(resolver);
+        init(keyQuery, dataRef, (JoinResolver) null);
+    }
+
+    @CallSuper
+    protected void init(Query keyQuery, DatabaseReference dataRef, MultiJoinResolver resolver) {
+        mMultiJoinResolver = Preconditions.checkNotNull(resolver);
+        init(keyQuery, dataRef, (JoinResolver) null);
+    }
+
     @CallSuper
     protected void init(Query keyQuery, DatabaseReference dataRef, JoinResolver resolver) {
         mDataRef = dataRef;
@@ -130,10 +306,214 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
         mKeySnapshots.addChangeEventListener(this);
     }
 
+    /**
+     * Only join the data of keys within {@code distance} rows of the last row bound by an adapter,
+     * instead of listening to the data of every key. Listeners are detached once their row is more
+     * than twice as far away.
+     * <p>
+     * Every key then has a row, even before its data is loaded. Such rows hold the key's own
+     * snapshot and are parsed as the placeholder, see {@link #setPlaceholder(Object)} and {@link
+     * #isPlaceholder(int)}. Rows whose data is missing from {@code dataRef} also remain
+     * placeholders.
+     * <p>
+     * This must be called before any key has been loaded, usually right after construction.
+     *
+     * @param distance the number of rows on either side of the bound one to join, or -1 to join
+     *                 every key (the default)
+     */
+    public void setViewportJoinDistance(int distance) {
+        if (!mKeyNodes.isEmpty()) {
+            throw new IllegalStateException("The join mode can't be changed once keys are loaded");
+        }
+        mJoinDistance = distance < 0 ? -1 : distance;
+    }
+
+    /**
+     * Join keys with range queries on {@code dataRef} instead of one listener per key. Keys waiting
+     * to be joined are sorted in key order and split into chunks of up to {@code chunkSize} keys.
+     * Each chunk is joined with a single {@code orderByKey().startAt(first).endAt(last)} query
+     * whose result is split into per-key snapshots.
+     * <p>
+     * Every child of {@code dataRef} within a chunk's range is downloaded, including children
+     * that aren't indexed, so this only pays off when the indexed keys are mostly contiguous in
+     * {@code dataRef}. It can't be used with a custom {@link JoinResolver}.
+     * <p>
+     * This must be called before any key has been loaded, usually right after construction.
+     *
+     * @param chunkSize the maximum number of keys joined by one query, or -1 to listen to every
+     *                  key separately (the default)
+     */
+    public void setBulkJoinChunkSize(int chunkSize) {
+        if (!mKeyNodes.isEmpty()) {
+            throw new IllegalStateException("The join mode can't be changed once keys are loaded");
+        }
+        if (chunkSize > 0 && !(mJoinResolver instanceof FirebaseIndexArray.DefaultJoinResolver)) {
+            throw new IllegalStateException("Bulk joins require the default JoinResolver");
+        }
+        mBulkJoinChunkSize = chunkSize <= 0 ? -1 : chunkSize;
+    }
+
+    /**
+     * Listen to joined refs through the given pool, so that arrays joining the same refs share a
+     * single database listener per ref. Usually {@link JoinListenerPool#getInstance()}. Bulk joins
+     * aren't pooled.
+     * <p>
+     * This must be called before any key has been loaded, usually right after construction.
+     *
+     * @param pool the pool to subscribe to joined refs through, or null to listen to them directly
+     *             (the default)
+     */
+    public void setJoinListenerPool(@Nullable JoinListenerPool pool) {
+        if (!mKeyNodes.isEmpty()) {
+            throw new IllegalStateException("The join mode can't be changed once keys are loaded");
+        }
+        mJoinListenerPool = pool;
+    }
+
+    /**
+     * Set the object returned by {@link #getObject(int)} for rows whose data hasn't been joined
+     * yet. Only used with {@link #setViewportJoinDistance(int)}.
+     */
+    public void setPlaceholder(@Nullable T placeholder) {
+        mPlaceholder = placeholder;
+    }
+
+    /**
+     * @return true if the row at the given index is waiting for its joined data
+     * @see #setViewportJoinDistance(int)
+     */
+    public boolean isPlaceholder(int index) {
+        return mJoinDistance != -1 && !mLoadedKeys.contains(get(index).getKey());
+    }
+
+    @Override
+    public T getObject(int index) {
+        return isPlaceholder(index) ? mPlaceholder : super.getObject(index);
+    }
+
+    @Override
+    public void prefetch(int index) {
+        if (index >= 0 && index < size() && isPlaceholder(index)) return;
+        super.prefetch(index);
+    }
+
+    /**
+     * In viewport mode, joins and releases keys around the bound row on the next frame.
+     */
+    @Override
+    public void onItemBound(int index) {
+        mLastBoundIndex = index;
+        scheduleJoinWindowUpdate();
+    }
+
+    private void scheduleJoinWindowUpdate() {
+        if (mJoinDistance == -1) return;
+
+        if (mJoinWindowUpdater == null) {
+            mJoinWindowUpdater = new FrameScheduler(new Runnable() {
+                @Override
+                public void run() {
+                    updateJoinWindow();
+                }
+            });
+        }
+        mJoinWindowUpdater.schedule();
+    }
+
+    private void updateJoinWindow() {
+        // Release keys which are far away first
+        List<String> joinedKeys = new ArrayList<>(mJoinedRefs.keySet());
+        joinedKeys.addAll(mPendingResolutions.keySet());
+        joinedKeys.addAll(mJoinChunks.keySet());
+        joinedKeys.addAll(mPendingBulkJoins);
+        for (String key : joinedKeys) {
+            OrderStatisticTree.Node<String> node = mKeyNodes.get(key);
+            if (Math.abs(mKeyPositions.indexOf(node) - mLastBoundIndex) <= 2 * mJoinDistance) {
+                continue;
+            }
+
+            releaseJoin(key);
+            if (node.isMarked()) showPlaceholder(node);
+        }
+
+        int start = Math.max(0, mLastBoundIndex - mJoinDistance);
+        int end = Math.min(mKeySnapshots.size() - 1, mLastBoundIndex + mJoinDistance);
+        for (int i = start; i <= end; i++) {
+            DataSnapshot keySnapshot = mKeySnapshots.get(i);
+            String key = keySnapshot.getKey();
+            if (isJoined(key) || !mKeyNodes.get(key).isMarked()) continue;
+
+            if (mBulkJoinChunkSize == -1) {
+                join(keySnapshot);
+            } else {
+                queueBulkJoin(key);
+            }
+        }
+        flushBulkJoins();
+    }
+
+    private boolean isJoined(String key) {
+        return mJoinedRefs.containsKey(key)
+                || mPendingResolutions.containsKey(key)
+                || mJoinChunks.containsKey(key)
+                || mPendingBulkJoins.contains(key);
+    }
+
+    private void queueBulkJoin(String key) {
+        mPendingBulkJoins.add(key);
+
+        if (mBulkJoinFlusher == null) {
+            mBulkJoinFlusher = new FrameScheduler(new Runnable() {
+                @Override
+                public void run() {
+                    flushBulkJoins();
+                }
+            });
+        }
+        mBulkJoinFlusher.schedule();
+    }
+
+    /**
+     * Join every queued key, with one range query per chunk of neighbouring keys.
+     */
+    private void flushBulkJoins() {
+        if (mPendingBulkJoins.isEmpty()) return;
+
+        List<String> keys = new ArrayList<>(mPendingBulkJoins);
+        mPendingBulkJoins.clear();
+        Collections.sort(keys, KeyComparator.INSTANCE);
+        for (int i = 0; i < keys.size(); i += mBulkJoinChunkSize) {
+            JoinChunk chunk = new JoinChunk(
+                    keys.subList(i, Math.min(keys.size(), i + mBulkJoinChunkSize)));
+            for (String key : chunk.mKeys) mJoinChunks.put(key, chunk);
+            chunk.attach();
+        }
+    }
+
+    private void releaseBulkJoin(String key) {
+        mPendingBulkJoins.remove(key);
+        JoinChunk chunk = mJoinChunks.remove(key);
+        if (chunk != null) chunk.release(key);
+    }
+
+    /**
+     * Replace the joined data of a key's row with the key's snapshot.
+     */
+    private void showPlaceholder(OrderStatisticTree.Node<String> node) {
+        if (!mLoadedKeys.remove(node.getValue())) return;
+
+        int index = mKeyPositions.markedIndexOf(node);
+        DataSnapshot placeholder = mKeySnapshots.get(mKeyPositions.indexOf(node));
+        updateData(index, placeholder);
+        notifyChangeEventListeners(EventType.CHANGED, placeholder, index);
+    }
+
     @Override
     public void onChildChanged(EventType type, DataSnapshot snapshot, int index, int oldIndex) {
         switch (type) {
             case ADDED:
+                String key = snapshot.getKey();
+                mKeyNodes.put(key, mKeyPositions.insertNode(index, key));
                 onKeyAdded(snapshot);
                 break;
             case MOVED:
@@ -151,7 +531,10 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
 
     @Override
     public void onDataChanged() {
-        if (mHasPendingMoveOrDelete || mKeySnapshots.isEmpty()) {
+        // The backing array is done loading a batch of keys, join them right away
+        flushBulkJoins();
+
+        if (mHasPendingMoveOrDelete || mKeySnapshots.isEmpty() || mJoinDistance != -1) {
             notifyListenersOnDataChanged();
             mHasPendingMoveOrDelete = false;
         }
@@ -166,8 +549,14 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
     public void removeChangeEventListener(@NonNull ChangeEventListener listener) {
         super.removeChangeEventListener(listener);
         if (!isListening()) {
-            for (DatabaseReference ref : mRefs.keySet()) {
-                ref.removeEventListener(mRefs.get(ref));
+            for (DatabaseReference ref : new ArrayList<>(mRefs.keySet())) {
+                stopListening(ref);
+            }
+            for (JoinChunk chunk : new HashSet<>(mJoinChunks.values())) {
+                chunk.detach();
+            }
+            for (String key : new ArrayList<>(mPartListeners.keySet())) {
+                releaseParts(key);
             }
 
             clearData();
@@ -179,62 +568,246 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
         return mDataSnapshots;
     }
 
+    @Override
+    protected int indexOfKey(String key) {
+        OrderStatisticTree.Node<String> node = mKeyNodes.get(key);
+        return node == null || !node.isMarked() ? -1 : mKeyPositions.markedIndexOf(node);
+    }
+
     @Override
     protected void clearData() {
         super.clearData();
         mRefs.clear();
+        mJoinedRefs.clear();
+        mPendingResolutions.clear();
+        mChangedCompositeKeys.clear();
+        mLoadedKeys.clear();
+        mPendingBulkJoins.clear();
+        mJoinChunks.clear();
+
+        for (OrderStatisticTree.Node<String> node : mKeyNodes.values()) {
+            mKeyPositions.setMarked(node, false);
+        }
     }
 
-    private int getIndexForKey(String key) {
-        int dataCount = size();
-        int index = 0;
-        for (int keyIndex = 0; index < dataCount; keyIndex++) {
-            String superKey = mKeySnapshots.getObject(keyIndex);
-            if (key.equals(superKey)) {
-                break;
-            } else if (mDataSnapshots.get(index).getKey().equals(superKey)) {
-                index++;
+    protected void onKeyAdded(DataSnapshot data) {
+        if (mJoinDistance != -1) {
+            // Show a placeholder until the key is joined
+            OrderStatisticTree.Node<String> node = mKeyNodes.get(data.getKey());
+            mKeyPositions.setMarked(node, true);
+            int index = mKeyPositions.markedIndexOf(node);
+            addData(index, data);
+            notifyChangeEventListeners(EventType.ADDED, data, index);
+
+            scheduleJoinWindowUpdate();
+            return;
+        }
+
+        mKeysWithPendingData.add(data.getKey());
+        if (mBulkJoinChunkSize != -1) {
+            queueBulkJoin(data.getKey());
+            return;
+        }
+
+        join(data);
+    }
+
+    /**
+     * Find the ref holding a key's data and start listening to it. With an {@link
+     * AsyncJoinResolver} many keys can be resolving at once, their data is placed by key position
+     * whatever order the resolutions complete in.
+     */
+    private void join(final DataSnapshot keySnapshot) {
+        final String key = keySnapshot.getKey();
+        if (mMultiJoinResolver != null) {
+            joinComposite(keySnapshot);
+            return;
+        }
+        if (mAsyncJoinResolver == null) {
+            DatabaseReference ref = mJoinResolver.onJoin(keySnapshot);
+            if (mJoinDistance != -1) mJoinedRefs.put(key, ref);
+            listen(ref);
+            return;
+        }
+
+        Task<DatabaseReference> resolution = mAsyncJoinResolver.onJoin(keySnapshot);
+        mPendingResolutions.put(key, resolution);
+        resolution.addOnCompleteListener(new OnCompleteListener<DatabaseReference>() {
+            @Override
+            public void onComplete(@NonNull Task<DatabaseReference> task) {
+                // The key was removed or released while it was being resolved
+                if (mPendingResolutions.get(key) != task) return;
+                mPendingResolutions.remove(key);
+
+                if (task.isSuccessful()) {
+                    DatabaseReference ref = task.getResult();
+                    mJoinedRefs.put(key, ref);
+                    listen(ref);
+                } else {
+                    // The key won't get any data, so it no longer holds back onDataChanged
+                    boolean wasPending = mKeysWithPendingData.remove(key);
+                    mAsyncJoinResolver.onResolveFailed(keySnapshot, task.getException());
+                    if (wasPending && mKeysWithPendingData.isEmpty()) {
+                        notifyListenersOnDataChanged();
+                    }
+                }
             }
+        });
+    }
+
+    private void releaseJoin(String key) {
+        DatabaseReference ref = mJoinedRefs.remove(key);
+        if (ref != null) stopListening(ref);
+        mPendingResolutions.remove(key);
+        releaseBulkJoin(key);
+        releaseParts(key);
+    }
+
+    /**
+     * Listen to every ref a {@link MultiJoinResolver} returns for a key. The first one is handled
+     * like a regular joined ref, the others only update the key's composite item.
+     */
+    private void joinComposite(DataSnapshot keySnapshot) {
+        String key = keySnapshot.getKey();
+        List<DatabaseReference> refs = mMultiJoinResolver.onJoin(keySnapshot);
+        if (refs.isEmpty()) {
+            throw new IllegalArgumentException("A MultiJoinResolver must return at least one ref");
+        }
+
+        mCompositeParts.put(key,
+                            Collections.unmodifiableList(
+                                    Arrays.asList(new DataSnapshot[refs.size()])));
+        List<PartListener> listeners = new ArrayList<>();
+        mPartListeners.put(key, listeners);
+        for (int i = 1; i < refs.size(); i++) {
+            PartListener listener = new PartListener(key, i, refs.get(i));
+            listeners.add(listener);
+            getPartPool().subscribe(refs.get(i), listener);
+        }
+
+        mJoinedRefs.put(key, refs.get(0));
+        listen(refs.get(0));
+    }
+
+    private void releaseParts(String key) {
+        List<PartListener> listeners = mPartListeners.remove(key);
+        if (listeners == null) return;
+
+        for (PartListener listener : listeners) {
+            getPartPool().unsubscribe(listener.mRef, listener);
         }
-        return index;
+        mCompositeParts.remove(key);
     }
 
     /**
-     * Determines if a DataSnapshot with the given key is present at the given index.
+     * Refs other than the first are often shared between keys, such as the profile of a message's
+     * author, so they are always pooled.
      */
-    private boolean isKeyAtIndex(String key, int index) {
-        return index >= 0 && index < size() && mDataSnapshots.get(index).getKey().equals(key);
+    private JoinListenerPool getPartPool() {
+        if (mJoinListenerPool != null) return mJoinListenerPool;
+        if (mPartPool == null) mPartPool = new JoinListenerPool();
+        return mPartPool;
     }
 
-    protected void onKeyAdded(DataSnapshot data) {
-        DatabaseReference ref = mJoinResolver.onJoin(data);
+    private void setPart(String key, int index, DataSnapshot snapshot, boolean notify) {
+        List<DataSnapshot> parts = mCompositeParts.get(key);
+        if (parts == null) return;
 
-        mKeysWithPendingData.add(data.getKey());
-        // Start listening
-        mRefs.put(ref, ref.addValueEventListener(new DataRefListener()));
+        parts = new ArrayList<>(parts);
+        parts.set(index, snapshot);
+        mCompositeParts.put(key, Collections.unmodifiableList(parts));
+
+        OrderStatisticTree.Node<String> node = mKeyNodes.get(key);
+        if (!notify || node == null || !node.isMarked()) return;
+
+        mChangedCompositeKeys.add(key);
+        if (mCompositeChangeNotifier == null) {
+            mCompositeChangeNotifier = new FrameScheduler(new Runnable() {
+                @Override
+                public void run() {
+                    notifyCompositeChanges();
+                }
+            });
+        }
+        mCompositeChangeNotifier.schedule();
+    }
+
+    private void notifyCompositeChanges() {
+        if (mChangedCompositeKeys.isEmpty()) return;
+
+        List<String> keys = new ArrayList<>(mChangedCompositeKeys);
+        mChangedCompositeKeys.clear();
+        for (String key : keys) {
+            OrderStatisticTree.Node<String> node = mKeyNodes.get(key);
+            List<DataSnapshot> parts = mCompositeParts.get(key);
+            if (node == null || parts == null || !node.isMarked()) continue;
+            if (mJoinDistance != -1 && !mLoadedKeys.contains(key)) continue; // Placeholder row
+
+            int index = mKeyPositions.markedIndexOf(node);
+            DataSnapshot snapshot = parts.get(0) == null ? get(index) : parts.get(0);
+            updateData(index, snapshot);
+            notifyChangeEventListeners(EventType.CHANGED, snapshot, index);
+        }
+        notifyListenersOnDataChanged();
+    }
+
+    private void listen(DatabaseReference ref) {
+        ValueEventListener listener = new DataRefListener();
+        mRefs.put(ref, listener);
+        if (mJoinListenerPool == null) {
+            ref.addValueEventListener(listener);
+        } else {
+            mJoinListenerPool.subscribe(ref, listener);
+        }
+    }
+
+    private void stopListening(DatabaseReference ref) {
+        ValueEventListener listener = mRefs.remove(ref);
+        if (listener == null) return;
+
+        if (mJoinListenerPool == null) {
+            ref.removeEventListener(listener);
+        } else {
+            mJoinListenerPool.unsubscribe(ref, listener);
+        }
     }
 
     protected void onKeyMoved(DataSnapshot data, int index, int oldIndex) {
         String key = data.getKey();
+        OrderStatisticTree.Node<String> node = mKeyNodes.get(key);
+        boolean isPresent = node.isMarked();
+        int oldDataIndex = mKeyPositions.markedIndexOf(node);
 
-        if (isKeyAtIndex(key, oldIndex)) {
-            DataSnapshot snapshot = removeData(oldIndex);
+        mKeyPositions.removeNode(node);
+        node = mKeyPositions.insertNode(index, key);
+        mKeyPositions.setMarked(node, isPresent);
+        mKeyNodes.put(key, node);
+
+        if (isPresent) {
+            int dataIndex = mKeyPositions.markedIndexOf(node);
+            DataSnapshot snapshot = removeData(oldDataIndex);
             mHasPendingMoveOrDelete = true;
-            mDataSnapshots.add(index, snapshot);
-            notifyChangeEventListeners(EventType.MOVED, snapshot, index, oldIndex);
+            addData(dataIndex, snapshot);
+            notifyChangeEventListeners(EventType.MOVED, snapshot, dataIndex, oldDataIndex);
         }
+        scheduleJoinWindowUpdate();
     }
 
     protected void onKeyRemoved(DataSnapshot data, int index) {
-        DatabaseReference removeRef = mJoinResolver.onDisjoin(data);
-        ValueEventListener listener = mRefs.remove(removeRef);
-        if (listener != null) removeRef.removeEventListener(listener);
+        if (mJoinResolver != null) stopListening(mJoinResolver.onDisjoin(data));
+        releaseJoin(data.getKey());
+        mLoadedKeys.remove(data.getKey());
+
+        OrderStatisticTree.Node<String> node = mKeyNodes.remove(data.getKey());
+        int dataIndex = mKeyPositions.markedIndexOf(node);
+        mKeyPositions.removeNode(node);
 
-        if (isKeyAtIndex(data.getKey(), index)) {
-            DataSnapshot snapshot = removeData(index);
+        if (node.isMarked()) {
+            DataSnapshot snapshot = removeData(dataIndex);
             mHasPendingMoveOrDelete = true;
-            notifyChangeEventListeners(EventType.REMOVED, snapshot, index);
+            notifyChangeEventListeners(EventType.REMOVED, snapshot, dataIndex);
         }
+        scheduleJoinWindowUpdate();
     }
 
     @Override
@@ -272,41 +845,199 @@ public class FirebaseIndexArray<T> extends CachingObservableSnapshotArray<T> imp
         @Override
         public void onDataChange(DataSnapshot snapshot) {
             String key = snapshot.getKey();
-            int index = getIndexForKey(key);
+            OrderStatisticTree.Node<String> node = mKeyNodes.get(key);
+            if (node == null) return; // The key was removed while this event was in flight
+
+            if (mJoinDistance != -1) {
+                onJoinedDataChange(node, snapshot);
+                return;
+            }
+
+            int index = mKeyPositions.markedIndexOf(node);
 
             if (snapshot.getValue() != null) {
-                if (isKeyAtIndex(key, index)) {
+                if (node.isMarked()) {
+                    if (mMultiJoinResolver != null) {
+                        // Coalesced with changes to the key's other refs
+                        setPart(key, 0, snapshot, true);
+                        return;
+                    }
+
                     // We already know about this data, just update it
-                    updateData(index, snapshot);
-                    notifyChangeEventListeners(EventType.CHANGED, snapshot, index);
+                    if (updateDataAndCompare(index, snapshot)) {
+                        notifyChangeEventListeners(EventType.CHANGED, snapshot, index);
+                    }
                     notifyListenersOnDataChanged();
                 } else {
                     // We don't already know about this data, add it
-                    mDataSnapshots.add(index, snapshot);
+                    if (mMultiJoinResolver != null) setPart(key, 0, snapshot, false);
+                    addData(index, snapshot);
+                    mKeyPositions.setMarked(node, true);
                     notifyChangeEventListeners(EventType.ADDED, snapshot, index);
 
                     mKeysWithPendingData.remove(key);
                     if (mKeysWithPendingData.isEmpty()) notifyListenersOnDataChanged();
                 }
             } else {
-                if (isKeyAtIndex(key, index)) {
+                if (node.isMarked()) {
                     // This data has disappeared, remove it
                     removeData(index);
+                    mKeyPositions.setMarked(node, false);
+                    if (mMultiJoinResolver != null) setPart(key, 0, null, false);
                     notifyChangeEventListeners(EventType.REMOVED, snapshot, index);
                     notifyListenersOnDataChanged();
                 } else {
                     // Data does not exist
-                    mJoinResolver.onJoinFailed(snapshot, index);
+                    onJoinFailed(snapshot, index);
                 }
             }
         }
 
+        private void onJoinedDataChange(OrderStatisticTree.Node<String> node,
+                                        DataSnapshot snapshot) {
+            // The key was released or its row cleared while this event was in flight
+            if (!isJoined(node.getValue()) || !node.isMarked()) return;
+
+            int index = mKeyPositions.markedIndexOf(node);
+            if (snapshot.getValue() != null) {
+                if (mMultiJoinResolver != null) setPart(node.getValue(), 0, snapshot, false);
+                mLoadedKeys.add(node.getValue());
+                updateData(index, snapshot);
+                notifyChangeEventListeners(EventType.CHANGED, snapshot, index);
+            } else {
+                showPlaceholder(node);
+                onJoinFailed(snapshot, index);
+            }
+            notifyListenersOnDataChanged();
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            notifyListenersOnCancelled(error);
+        }
+    }
+
+    private void onJoinFailed(DataSnapshot snapshot, int index) {
+        if (mJoinResolver != null) {
+            mJoinResolver.onJoinFailed(snapshot, index);
+        } else if (mAsyncJoinResolver != null) {
+            mAsyncJoinResolver.onJoinFailed(snapshot, index);
+        } else {
+            mMultiJoinResolver.onJoinFailed(snapshot, index);
+        }
+    }
+
+    /**
+     * Listens to one of the refs of a composite item other than the first.
+     */
+    private final class PartListener implements ValueEventListener {
+        private final String mKey;
+        private final int mIndex;
+        private final DatabaseReference mRef;
+
+        public PartListener(String key, int index, DatabaseReference ref) {
+            mKey = key;
+            mIndex = index;
+            mRef = ref;
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+            setPart(mKey, mIndex, snapshot, true);
+        }
+
         @Override
         public void onCancelled(DatabaseError error) {
             notifyListenersOnCancelled(error);
         }
     }
 
+    /**
+     * Parses the first snapshot of a composite item together with the latest snapshots of the
+     * item's other refs.
+     */
+    private static final class CompositeParser<T> implements SnapshotParser<T> {
+        private final CompositeSnapshotParser<T> mParser;
+        private final Map<String, List<DataSnapshot>> mParts;
+
+        public CompositeParser(CompositeSnapshotParser<T> parser,
+                               Map<String, List<DataSnapshot>> parts) {
+            mParser = Preconditions.checkNotNull(parser);
+            mParts = parts;
+        }
+
+        @Override
+        public T parseSnapshot(DataSnapshot snapshot) {
+            List<DataSnapshot> parts = mParts.get(snapshot.getKey());
+            List<DataSnapshot> snapshots = new ArrayList<>();
+            if (parts == null) {
+                snapshots.add(snapshot);
+            } else {
+                snapshots.addAll(parts);
+                snapshots.set(0, snapshot);
+            }
+            return mParser.parseSnapshots(Collections.unmodifiableList(snapshots));
+        }
+    }
+
+    /**
+     * A range query on the data ref joining a chunk of keys. Each change to the range is split into
+     * per-key snapshots, and those whose value changed are handed to a {@link DataRefListener}.
+     */
+    private final class JoinChunk implements ValueEventListener {
+        private final Set<String> mKeys;
+        private final Query mQuery;
+        /**
+         * The value and priority last handed on for each key.
+         */
+        private final Map<String, Object> mValues = new HashMap<>();
+        private final DataRefListener mKeyListener = new DataRefListener();
+
+        public JoinChunk(List<String> sortedKeys) {
+            mKeys = new HashSet<>(sortedKeys);
+            mQuery = mDataRef.orderByKey()
+                    .startAt(sortedKeys.get(0))
+                    .endAt(sortedKeys.get(sortedKeys.size() - 1));
+        }
+
+        public void attach() {
+            mQuery.addValueEventListener(this);
+        }
+
+        public void detach() {
+            mQuery.removeEventListener(this);
+        }
+
+        public void release(String key) {
+            mKeys.remove(key);
+            mValues.remove(key);
+            if (mKeys.isEmpty()) detach();
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+            for (String key : new ArrayList<>(mKeys)) {
+                if (!mKeys.contains(key)) continue; // Released while handling a previous key
+
+                DataSnapshot child = snapshot.child(key);
+                Object value = child.getValue(true);
+                Object oldValue = mValues.get(key);
+                if (mValues.containsKey(key)
+                        && (value == null ? oldValue == null : value.equals(oldValue))) {
+                    continue;
+                }
+
+                mValues.put(key, value);
+                mKeyListener.onDataChange(child);
+            }
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            mKeyListener.onCancelled(error);
+        }
+    }
+
     protected class DefaultJoinResolver implements JoinResolver {
         @NonNull
         @Override
@@ -24,13 +24,32 @@ import com.google.firebase.database.Query;
  * @param <T> The class type to use as a model for the data contained in the children of the given
  *            Firebase location
  */
-public abstract class FirebaseListAdapter<T> extends BaseAdapter implements FirebaseAdapter<T> {
+public abstract class FirebaseListAdapter<T> extends BaseAdapter
+        implements FirebaseAdapter<T>, RangeChangeEventListener, PlaceholderEventListener {
     private static final String TAG = "FirebaseListAdapter";
+    private static final int DEFAULT_PREFETCH_DISTANCE = 10;
 
     protected final Activity mActivity;
     protected final ObservableSnapshotArray<T> mSnapshots;
     protected final int mLayout;
 
+    private final FrameScheduler mFlushScheduler = new FrameScheduler(new Runnable() {
+        @Override
+        public void run() {
+            flushPendingUpdates();
+        }
+    });
+    private int mPrefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+    private int mLastBoundPosition = -1;
+
+    private boolean mIsBatchingEnabled;
+    private boolean mHasPendingUpdates;
+    /**
+     * The contents the {@link ListView} was last notified of. While a notification is pending,
+     * items are read from here so that the count matches what the ListView expects.
+     */
+    private SnapshotArrayVersion mShownSnapshots;
+
     /**
      * @param activity    The {@link Activity} containing the {@link ListView}
      * @param modelLayout This is the layout used to represent a single list item. You will be
@@ -82,19 +101,92 @@ public abstract class FirebaseListAdapter<T> extends BaseAdapter implements Fire
 
     @Override
     public void cleanup() {
+        flushPendingUpdates();
         mSnapshots.removeChangeEventListener(this);
     }
 
+    /**
+     * Enable or disable coalesced notifications. When enabled, child events no longer trigger a
+     * {@link #notifyDataSetChanged()} each: a single notification is dispatched at the end of each
+     * update (in {@link #onDataChanged()}) or, at the latest, on the next frame. This keeps the
+     * {@link ListView} from rebinding every visible row once per child during large updates.
+     * <p>
+     * Until the notification is dispatched, the adapter keeps showing the items as they were at the
+     * last one. Each notification captures them with {@link ObservableSnapshotArray#snapshot()},
+     * which is O(1) for the default {@link ArraySnapshotStorage} and for a {@link
+     * PersistentSnapshotStorage}. The former copies its list once on the next change.
+     * <p>
+     * If you override {@link #onDataChanged()} in batching mode, make sure to call through to
+     * {@code super.onDataChanged()} so that updates are dispatched as soon as they are complete.
+     */
+    public void setBatchingEnabled(boolean enabled) {
+        if (enabled == mIsBatchingEnabled) return;
+
+        flushPendingUpdates();
+        mIsBatchingEnabled = enabled;
+        mShownSnapshots = enabled ? mSnapshots.snapshot() : null;
+    }
+
+    /**
+     * @return true if child events are coalesced
+     * @see #setBatchingEnabled(boolean)
+     */
+    public boolean isBatchingEnabled() {
+        return mIsBatchingEnabled;
+    }
+
+    /**
+     * Dispatch the pending notification, if any, to the {@link ListView} immediately.
+     *
+     * @see #setBatchingEnabled(boolean)
+     */
+    protected void flushPendingUpdates() {
+        mFlushScheduler.cancel();
+        if (mHasPendingUpdates) {
+            // The ListView reads the new contents as soon as it is notified
+            mHasPendingUpdates = false;
+            mShownSnapshots = mSnapshots.snapshot();
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * @return the index in the array of the item shown at the given position, or -1 if it was
+     * removed since
+     */
+    private int getArrayIndex(int position) {
+        if (!mHasPendingUpdates) return position;
+
+        DataSnapshot snapshot = mShownSnapshots.get(position);
+        // Rows restored from a disk cache have no snapshot, and are only shown before any update
+        return snapshot == null ? position : mSnapshots.indexOfKey(snapshot.getKey());
+    }
+
     @Override
     public void onChildChanged(ChangeEventListener.EventType type,
                                DataSnapshot snapshot,
                                int index,
                                int oldIndex) {
-        notifyDataSetChanged();
+        onUpdate();
+    }
+
+    @Override
+    public void onRangeChanged(RangeEventType type, int index, int count) {
+        onUpdate();
+    }
+
+    private void onUpdate() {
+        if (mIsBatchingEnabled) {
+            mHasPendingUpdates = true;
+            mFlushScheduler.schedule();
+        } else {
+            notifyDataSetChanged();
+        }
     }
 
     @Override
     public void onDataChanged() {
+        flushPendingUpdates();
     }
 
     @Override
@@ -104,12 +196,15 @@ public abstract class FirebaseListAdapter<T> extends BaseAdapter implements Fire
 
     @Override
     public T getItem(int position) {
-        return mSnapshots.getObject(position);
+        int index = getArrayIndex(position);
+        if (index == -1) return mSnapshots.mParser.parseSnapshot(mShownSnapshots.get(position));
+        return mSnapshots.getObject(index);
     }
 
     @Override
     public DatabaseReference getRef(int position) {
-        return mSnapshots.get(position).getRef();
+        int index = getArrayIndex(position);
+        return index == -1 ? mShownSnapshots.get(position).getRef() : mSnapshots.getRef(index);
     }
 
     @Override
@@ -119,13 +214,15 @@ public abstract class FirebaseListAdapter<T> extends BaseAdapter implements Fire
 
     @Override
     public int getCount() {
-        return mSnapshots.size();
+        return mHasPendingUpdates ? mShownSnapshots.size() : mSnapshots.size();
     }
 
     @Override
     public long getItemId(int i) {
         // http://stackoverflow.com/questions/5100071/whats-the-purpose-of-item-ids-in-android-listview-adapter
-        return mSnapshots.get(i).getKey().hashCode();
+        int index = getArrayIndex(i);
+        if (index == -1) return mShownSnapshots.get(i).getKey().hashCode();
+        return mSnapshots.getKey(index).hashCode();
     }
 
     @Override
@@ -138,9 +235,34 @@ public abstract class FirebaseListAdapter<T> extends BaseAdapter implements Fire
 
         // Call out to subclass to marshall this model into the provided view
         populateView(view, model, position);
+        int index = getArrayIndex(position);
+        if (index != -1) {
+            mSnapshots.onItemBound(index);
+            prefetchAhead(index);
+        }
         return view;
     }
 
+    /**
+     * Set how many items ahead of the scroll direction should be prefetched each time a view is
+     * populated. Prefetching only has an effect if the backing array parses in the background, see
+     * {@link CachingObservableSnapshotArray#setParseExecutor(java.util.concurrent.Executor)}.
+     *
+     * @param distance the number of items to prefetch, or 0 to disable prefetching
+     */
+    public void setPrefetchDistance(int distance) {
+        mPrefetchDistance = distance;
+    }
+
+    private void prefetchAhead(int position) {
+        int direction = position < mLastBoundPosition ? -1 : 1;
+        mLastBoundPosition = position;
+
+        for (int i = 1; i <= mPrefetchDistance; i++) {
+            mSnapshots.prefetch(position + direction * i);
+        }
+    }
+
     /**
      * Each time the data at the given Firebase location changes,
      * this method will be called for each item that needs to be displayed.
@@ -152,6 +274,7 @@ public abstract class FirebaseListAdapter<T> extends BaseAdapter implements Fire
      * @param v        The view to populate
      * @param model    The object containing the data used to populate the view
      * @param position The position in the list of the view being populated
+     * @see FirebaseViewHolderListAdapter
      */
     protected abstract void populateView(View v, T model, int position);
 }
@@ -0,0 +1,28 @@
+package com.firebase.ui.database;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a model class for which the optional {@code firebase-ui-database-processor} annotation
+ * processor should generate a {@link SnapshotParser}. For a class {@code Chat} the generated parser
+ * is {@code Chat_SnapshotParser} in the same package; for a nested class {@code Outer.Chat} it is
+ * {@code Outer_Chat_SnapshotParser}.
+ * <p>
+ * The generated parser follows the same mapping rules as {@link
+ * com.google.firebase.database.DataSnapshot#getValue(Class)}, including {@link
+ * com.google.firebase.database.PropertyName} and {@link com.google.firebase.database.Exclude}:
+ * properties are defined by public getters and fields and set through a setter or field of the
+ * same name. Unlike {@code getValue(Class)}, it calls setters and fields directly instead of
+ * through reflection, so those must not be private or final, and compilation fails otherwise.
+ * Like {@code getValue(Class)}, the parser creates models with their no-argument constructor,
+ * which must not be private.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface FirebaseModel {
+}
@@ -0,0 +1,596 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An {@link ObservableSnapshotArray} which loads the children of a location one page at a time,
+ * as items close to either end of the loaded window are bound by an adapter. Only a few pages are
+ * kept loaded and listened to: pages far away from the bound items are dropped and reloaded once
+ * they are scrolled back to, so memory use and the number of listeners stay bounded regardless of
+ * the size of the location.
+ * <p>
+ * Children are ordered by key, or by the value of one of their children. Each page is loaded with
+ * a cursor query starting at the first child of the page, and bounded by the first child of the
+ * next page if there is one. Every page query is also limited, to the page size for the last page
+ * and to twice the page size for the others: a page which grows to that size, because children
+ * were added to it or because it wasn't loaded for a while, is split in two so that none of its
+ * children are left out.
+ */
+public class FirebasePagedArray<T> extends CachingObservableSnapshotArray<T> {
+    public static final int DEFAULT_MAX_LOADED_PAGES = 3;
+
+    private final DatabaseReference mRef;
+    private final String mOrderByChild;
+    private final int mPageSize;
+    private int mMaxLoadedPages = DEFAULT_MAX_LOADED_PAGES;
+
+    private final SnapshotStorage mSnapshots = new ArraySnapshotStorage();
+    /**
+     * Every page discovered so far, in order. Only the pages from {@link #mFirstLoaded} to {@link
+     * #mLastLoaded} are loaded, their children are concatenated in {@link #mSnapshots}.
+     */
+    private final List<Page> mPages = new ArrayList<>();
+    private int mFirstLoaded;
+    private int mLastLoaded = -1;
+
+    /**
+     * The index of the last item bound by an adapter, shifted as items are added and removed before
+     * it. -1 if nothing has been bound yet.
+     */
+    private int mLastBoundIndex = -1;
+    private final FrameScheduler mWindowUpdater = new FrameScheduler(new Runnable() {
+        @Override
+        public void run() {
+            updateWindow();
+        }
+    });
+
+    /**
+     * Create a new FirebasePagedArray that parses snapshots as members of a given class.
+     *
+     * @param ref          the location whose children should be paged through
+     * @param orderByChild the child by which to order children, or null to order them by key
+     * @param pageSize     the number of children to load at a time
+     * @see ObservableSnapshotArray#ObservableSnapshotArray(Class)
+     */
+    public FirebasePagedArray(DatabaseReference ref,
+                              @Nullable String orderByChild,
+                              int pageSize,
+                              Class<T> tClass) {
+        super(tClass);
+        mRef = Preconditions.checkNotNull(ref);
+        mOrderByChild = orderByChild;
+        mPageSize = checkPageSize(pageSize);
+    }
+
+    /**
+     * Create a new FirebasePagedArray with a custom {@link SnapshotParser}.
+     *
+     * @see ObservableSnapshotArray#ObservableSnapshotArray(SnapshotParser)
+     * @see FirebasePagedArray#FirebasePagedArray(DatabaseReference, String, int, Class)
+     */
+    public FirebasePagedArray(DatabaseReference ref,
+                              @Nullable String orderByChild,
+                              int pageSize,
+                              SnapshotParser<T> parser) {
+        super(parser);
+        mRef = Preconditions.checkNotNull(ref);
+        mOrderByChild = orderByChild;
+        mPageSize = checkPageSize(pageSize);
+    }
+
+    private static int checkPageSize(int pageSize) {
+        if (pageSize < 2) throw new IllegalArgumentException("Page size must be at least 2");
+        return pageSize;
+    }
+
+    /**
+     * Set how many pages may be loaded at once before pages far away from the bound items are
+     * dropped. Defaults to {@link #DEFAULT_MAX_LOADED_PAGES}.
+     */
+    public void setMaxLoadedPages(int maxLoadedPages) {
+        if (maxLoadedPages < 1) throw new IllegalArgumentException("At least one page is needed");
+        mMaxLoadedPages = maxLoadedPages;
+        if (isListening()) mWindowUpdater.schedule();
+    }
+
+    @Override
+    protected List<DataSnapshot> getSnapshots() {
+        return mSnapshots;
+    }
+
+    @Override
+    protected int indexOfKey(String key) {
+        return mSnapshots.getIndexForKey(key);
+    }
+
+    @Override
+    public ChangeEventListener addChangeEventListener(@NonNull ChangeEventListener listener) {
+        boolean wasListening = isListening();
+        super.addChangeEventListener(listener);
+
+        // Only start listening when the first listener is added, always from the first page
+        if (!wasListening) {
+            if (mPages.isEmpty()) mPages.add(new Page(null));
+            mFirstLoaded = 0;
+            mLastLoaded = 0;
+            mLastBoundIndex = -1;
+            mPages.get(0).attach();
+        }
+
+        return listener;
+    }
+
+    @Override
+    public void removeChangeEventListener(@NonNull ChangeEventListener listener) {
+        super.removeChangeEventListener(listener);
+
+        // Clear data when all listeners are removed
+        if (!isListening() && mLastLoaded != -1) {
+            for (int i = mFirstLoaded; i <= mLastLoaded; i++) {
+                mPages.get(i).detach();
+                mPages.get(i).mKeys.clear();
+            }
+            mLastLoaded = -1;
+            mWindowUpdater.cancel();
+
+            clearData();
+        }
+    }
+
+    /**
+     * Loads and drops pages around the bound item on the next frame.
+     */
+    @Override
+    public void onItemBound(int index) {
+        mLastBoundIndex = index;
+        if (isListening()) mWindowUpdater.schedule();
+    }
+
+    @Override
+    protected void addData(int index, DataSnapshot snapshot) {
+        super.addData(index, snapshot);
+
+        // Keep following the same item, as the adapter's view of it doesn't move
+        if (index <= mLastBoundIndex) mLastBoundIndex++;
+    }
+
+    @Override
+    protected DataSnapshot removeData(int index) {
+        if (index < mLastBoundIndex) mLastBoundIndex--;
+        return super.removeData(index);
+    }
+
+    private void updateWindow() {
+        if (!isListening() || mLastLoaded == -1) return;
+
+        // Only change one page at a time, this is called again once the page has loaded
+        for (int i = mFirstLoaded; i <= mLastLoaded; i++) {
+            if (!mPages.get(i).mIsLoaded) return;
+        }
+
+        int threshold = getLoadThreshold();
+        if (mLastBoundIndex >= size() - threshold && loadNextPage()) return;
+        if (mLastBoundIndex < threshold && loadPreviousPage()) return;
+
+        // Pages within the load threshold of the bound item are kept, or they'd just be reloaded
+        while (mLastLoaded > mFirstLoaded && mLastLoaded - mFirstLoaded + 1 > mMaxLoadedPages) {
+            int headSize = mPages.get(mFirstLoaded).size();
+            int tailStart = size() - mPages.get(mLastLoaded).size();
+            int headDistance = mLastBoundIndex - (headSize - 1);
+            int tailDistance = tailStart - mLastBoundIndex;
+
+            if (headDistance >= tailDistance && headDistance > threshold) {
+                dropFirstPage();
+            } else if (tailDistance > threshold) {
+                dropLastPage();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private int getLoadThreshold() {
+        return mPageSize / 2;
+    }
+
+    /**
+     * @return the number of children at which a page bounded by the next one is split, so that
+     * its query's limit is never reached
+     */
+    private int getSplitSize() {
+        return 2 * mPageSize;
+    }
+
+    private boolean loadNextPage() {
+        Page last = mPages.get(mLastLoaded);
+        if (mLastLoaded + 1 < mPages.size()) {
+            mLastLoaded++;
+            mPages.get(mLastLoaded).attach();
+            return true;
+        }
+
+        // A new page can only be discovered past a full page, there is nothing more otherwise
+        if (last.size() < mPageSize) return false;
+
+        // The last child of the full page becomes the first child of the next one. It keeps its
+        // position in the array so it can be handed over without notifying listeners.
+        DataSnapshot boundary = mSnapshots.get(size() - 1);
+        Page next = new Page(new Cursor(boundary, mOrderByChild));
+        mPages.add(next);
+        mLastLoaded++;
+
+        last.mKeys.remove(boundary.getKey());
+        next.mKeys.add(boundary.getKey());
+
+        // Now that it has a next page, bound the previous last page by it instead of its size
+        last.reattach();
+        next.attach();
+        return true;
+    }
+
+    /**
+     * Merge a loaded page which no longer has any children into the page before it, so that empty
+     * pages don't count towards the loaded ones.
+     */
+    private void removeEmptyPage(Page page) {
+        int index = mPages.indexOf(page);
+        page.detach();
+        mPages.remove(index);
+        mLastLoaded--;
+
+        if (mLastLoaded < mFirstLoaded) {
+            // It was the only loaded page, continue from the one before it
+            mFirstLoaded = index - 1;
+            mLastLoaded = index - 1;
+            mPages.get(index - 1).attach();
+        } else if (index > mFirstLoaded) {
+            // The previous page is loaded and now extends over the removed one
+            mPages.get(index - 1).reattach();
+        }
+    }
+
+    /**
+     * Hand the children of a loaded page from the page size onwards over to a new page inserted
+     * after it. They keep their positions in the array, so listeners aren't notified.
+     */
+    private void splitPage(Page page) {
+        int index = mPages.indexOf(page);
+        int start = page.getOffset() + mPageSize;
+        int end = page.getOffset() + page.size();
+
+        Page next = new Page(new Cursor(mSnapshots.get(start), mOrderByChild));
+        for (int i = start; i < end; i++) {
+            String key = mSnapshots.get(i).getKey();
+            page.mKeys.remove(key);
+            next.mKeys.add(key);
+        }
+        mPages.add(index + 1, next);
+        mLastLoaded++;
+
+        page.reattach();
+        next.attach();
+    }
+
+    private boolean loadPreviousPage() {
+        if (mFirstLoaded == 0) return false;
+
+        mFirstLoaded--;
+        mPages.get(mFirstLoaded).attach();
+        return true;
+    }
+
+    private void dropFirstPage() {
+        Page page = mPages.get(mFirstLoaded);
+        int count = page.size();
+        page.detach();
+        page.mKeys.clear();
+        mFirstLoaded++;
+
+        dropRange(0, count);
+    }
+
+    private void dropLastPage() {
+        Page page = mPages.get(mLastLoaded);
+        int count = page.size();
+        page.detach();
+        page.mKeys.clear();
+        mLastLoaded--;
+
+        dropRange(size() - count, count);
+    }
+
+    private void dropRange(int index, int count) {
+        List<DataSnapshot> removed = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            removed.add(removeData(index));
+        }
+        notifyChangeEventListenersOfRange(
+                RangeChangeEventListener.RangeEventType.RANGE_REMOVED, index, removed);
+    }
+
+    private void onPageLoaded() {
+        for (int i = mFirstLoaded; i <= mLastLoaded; i++) {
+            if (!mPages.get(i).mIsLoaded) return;
+        }
+
+        notifyListenersOnDataChanged();
+
+        // The loaded pages might not reach far enough past the bound item yet
+        mWindowUpdater.schedule();
+    }
+
+    private Query getPageQuery(Page page) {
+        Query query = mOrderByChild == null ? mRef.orderByKey() : mRef.orderByChild(mOrderByChild);
+        if (page.mStart != null) query = page.mStart.startAt(query);
+
+        // The bounding child is included in the query, on top of the children of the page
+        Cursor end = page.getEnd();
+        return end == null
+                ? query.limitToFirst(mPageSize)
+                : end.endAt(query).limitToFirst(getSplitSize() + 1);
+    }
+
+    @Override
+    public String toString() {
+        if (isListening()) {
+            return "FirebasePagedArray is listening at " + mRef + " to pages " + mFirstLoaded
+                    + " to " + mLastLoaded + ":\n" + mSnapshots;
+        } else {
+            return "FirebasePagedArray is inactive";
+        }
+    }
+
+    /**
+     * A contiguous range of children, listened to with its own query while it is loaded.
+     */
+    private final class Page implements ChildEventListener, ValueEventListener {
+        /**
+         * The position of the first child of this page, or null for the first page.
+         */
+        private final Cursor mStart;
+        private final Set<String> mKeys = new HashSet<>();
+        /**
+         * Keys held by this page which haven't been replayed since the page was last attached. Any
+         * left once the page has loaded no longer belong to it.
+         */
+        private final Set<String> mUnconfirmedKeys = new HashSet<>();
+
+        private Query mQuery;
+        private boolean mIsLoaded;
+
+        public Page(Cursor start) {
+            mStart = start;
+        }
+
+        public void attach() {
+            mUnconfirmedKeys.addAll(mKeys);
+            mQuery = getPageQuery(this);
+            mQuery.addChildEventListener(this);
+            mQuery.addValueEventListener(this);
+        }
+
+        public void detach() {
+            if (mQuery == null) return;
+
+            mQuery.removeEventListener((ValueEventListener) this);
+            mQuery.removeEventListener((ChildEventListener) this);
+            mQuery = null;
+            mIsLoaded = false;
+            mUnconfirmedKeys.clear();
+        }
+
+        public void reattach() {
+            detach();
+            attach();
+        }
+
+        public int size() {
+            return mKeys.size();
+        }
+
+        /**
+         * @return the start of the next page, which bounds this one, or null if there is none yet
+         */
+        public Cursor getEnd() {
+            int next = mPages.indexOf(this) + 1;
+            return next < mPages.size() ? mPages.get(next).mStart : null;
+        }
+
+        private int getOffset() {
+            int offset = 0;
+            int index = mPages.indexOf(this);
+            for (int i = mFirstLoaded; i < index; i++) {
+                offset += mPages.get(i).size();
+            }
+            return offset;
+        }
+
+        /**
+         * @return the index of the child in the array if it belongs to this page, -1 otherwise
+         */
+        private int getIndexForKey(String key) {
+            return mKeys.contains(key) ? mSnapshots.getIndexForKey(key) : -1;
+        }
+
+        private int getIndexAfter(String previousChildKey) {
+            int index = previousChildKey == null ? -1 : getIndexForKey(previousChildKey);
+            return index == -1 ? getOffset() : index + 1;
+        }
+
+        private boolean isActive(DataSnapshot snapshot) {
+            // The bounding child is included in the query but belongs to the next page
+            Cursor end = getEnd();
+            return mQuery != null && (end == null || !end.mKey.equals(snapshot.getKey()));
+        }
+
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildKey) {
+            if (!isActive(snapshot)) return;
+
+            mUnconfirmedKeys.remove(snapshot.getKey());
+            int index = getIndexForKey(snapshot.getKey());
+            if (index != -1) {
+                // Re-attaching replays the children this page already holds
+                if (!isSameValue(mSnapshots.get(index), snapshot)
+                        && updateDataAndCompare(index, snapshot)) {
+                    notifyChangeEventListeners(ChangeEventListener.EventType.CHANGED,
+                                               snapshot,
+                                               index);
+                }
+                return;
+            }
+
+            index = getIndexAfter(previousChildKey);
+            mKeys.add(snapshot.getKey());
+            addData(index, snapshot);
+            notifyChangeEventListeners(ChangeEventListener.EventType.ADDED, snapshot, index);
+
+            // Split before the query's limit is reached, or children past it would be dropped
+            if (mIsLoaded && mKeys.size() >= getSplitSize()) splitPage(this);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildKey) {
+            if (!isActive(snapshot)) return;
+
+            int index = getIndexForKey(snapshot.getKey());
+            if (index == -1) return;
+
+            if (updateDataAndCompare(index, snapshot)) {
+                notifyChangeEventListeners(ChangeEventListener.EventType.CHANGED, snapshot, index);
+            }
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+            if (!isActive(snapshot)) return;
+
+            if (!mKeys.contains(snapshot.getKey())) return;
+
+            removeChild(snapshot.getKey());
+            if (mKeys.isEmpty() && mIsLoaded && mPages.indexOf(this) > 0) removeEmptyPage(this);
+        }
+
+        private void removeChild(String key) {
+            int index = getIndexForKey(key);
+            mKeys.remove(key);
+            DataSnapshot snapshot = removeData(index);
+            notifyChangeEventListeners(ChangeEventListener.EventType.REMOVED, snapshot, index);
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildKey) {
+            if (!isActive(snapshot)) return;
+
+            int oldIndex = getIndexForKey(snapshot.getKey());
+            if (oldIndex == -1) return;
+
+            mSnapshots.remove(oldIndex);
+            mKeys.remove(snapshot.getKey());
+            int newIndex = getIndexAfter(previousChildKey);
+            mKeys.add(snapshot.getKey());
+            mSnapshots.add(newIndex, snapshot);
+            onSnapshotsChanged();
+
+            if (oldIndex < mLastBoundIndex && newIndex >= mLastBoundIndex) {
+                mLastBoundIndex--;
+            } else if (oldIndex > mLastBoundIndex && newIndex <= mLastBoundIndex) {
+                mLastBoundIndex++;
+            }
+
+            notifyChangeEventListeners(ChangeEventListener.EventType.MOVED,
+                                       snapshot,
+                                       newIndex,
+                                       oldIndex);
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+            if (mQuery == null) return;
+
+            if (!mIsLoaded) {
+                for (String key : mUnconfirmedKeys) {
+                    removeChild(key);
+                }
+                mUnconfirmedKeys.clear();
+                mIsLoaded = true;
+
+                if (mKeys.isEmpty() && mPages.indexOf(this) > 0) {
+                    removeEmptyPage(this);
+                    return;
+                }
+
+                // The query's limit might have left out children which belong to this page
+                if (mKeys.size() >= getSplitSize()) {
+                    splitPage(this);
+                    return;
+                }
+            }
+
+            onPageLoaded();
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            notifyListenersOnCancelled(error);
+        }
+    }
+
+    /**
+     * The position of a child in the ordering used by the array.
+     */
+    private static final class Cursor {
+        private final String mKey;
+        private final boolean mIsOrderedByKey;
+        private final Object mValue;
+
+        public Cursor(DataSnapshot snapshot, @Nullable String orderByChild) {
+            mKey = snapshot.getKey();
+            mIsOrderedByKey = orderByChild == null;
+            mValue = mIsOrderedByKey ? null : snapshot.child(orderByChild).getValue();
+
+            if (mValue != null && !(mValue instanceof Boolean)
+                    && !(mValue instanceof Number) && !(mValue instanceof String)) {
+                throw new IllegalStateException("Children can only be paged by primitive values");
+            }
+        }
+
+        public Query startAt(Query query) {
+            if (mIsOrderedByKey) {
+                return query.startAt(mKey);
+            } else if (mValue instanceof Boolean) {
+                return query.startAt((Boolean) mValue, mKey);
+            } else if (mValue instanceof Number) {
+                return query.startAt(((Number) mValue).doubleValue(), mKey);
+            } else {
+                return query.startAt((String) mValue, mKey);
+            }
+        }
+
+        public Query endAt(Query query) {
+            if (mIsOrderedByKey) {
+                return query.endAt(mKey);
+            } else if (mValue instanceof Boolean) {
+                return query.endAt((Boolean) mValue, mKey);
+            } else if (mValue instanceof Number) {
+                return query.endAt(((Number) mValue).doubleValue(), mKey);
+            } else {
+                return query.endAt((String) mValue, mKey);
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.firebase.ui.database;
 
 import android.support.annotation.LayoutRes;
+import android.support.annotation.Nullable;
+import android.support.v7.util.BatchingListUpdateCallback;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -14,6 +17,10 @@ import com.google.firebase.database.Query;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class is a generic way of backing a {@link RecyclerView} with a Firebase location. It
@@ -28,13 +35,34 @@ import java.lang.reflect.InvocationTargetException;
  *             is shown for each object.
  */
 public abstract class FirebaseRecyclerAdapter<T, VH extends RecyclerView.ViewHolder>
-        extends RecyclerView.Adapter<VH> implements FirebaseAdapter<T> {
+        extends RecyclerView.Adapter<VH>
+        implements FirebaseAdapter<T>, RangeChangeEventListener, PlaceholderEventListener {
     private static final String TAG = "FirebaseRecyclerAdapter";
+    private static final int DEFAULT_PREFETCH_DISTANCE = 10;
 
     protected final ObservableSnapshotArray<T> mSnapshots;
     protected final Class<VH> mViewHolderClass;
     protected final int mModelLayout;
 
+    private final FrameScheduler mFlushScheduler = new FrameScheduler(new Runnable() {
+        @Override
+        public void run() {
+            flushPendingUpdates();
+        }
+    });
+    private int mPrefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+    private int mLastBoundPosition = RecyclerView.NO_POSITION;
+    private boolean mPartialBindsEnabled;
+
+    private final ListUpdateCallback mAdapterCallback = new AdapterUpdateCallback();
+    /** The notifications not sent to the {@link RecyclerView} yet, or null if not batching. */
+    private UpdateBuffer mPendingUpdates;
+    /**
+     * The contents the {@link RecyclerView} was last notified of. While notifications are pending,
+     * items are read from here so that positions match what the RecyclerView expects.
+     */
+    private SnapshotArrayVersion mShownSnapshots;
+
     /**
      * @param snapshots       The data used to populate the adapter
      * @param modelLayout     This is the layout used to represent a single item in the list. You
@@ -87,20 +115,97 @@ public abstract class FirebaseRecyclerAdapter<T, VH extends RecyclerView.ViewHol
 
     @Override
     public void cleanup() {
+        flushPendingUpdates();
         mSnapshots.removeChangeEventListener(this);
     }
 
+    /**
+     * Enable or disable batched notifications. When enabled, child events are buffered and only
+     * sent at the end of each update (in {@link #onDataChanged()}) or, at the latest, on the next
+     * frame, with contiguous runs of them collapsed into single {@code notifyItemRange*} calls.
+     * This makes large bursts of events such as the initial load much cheaper for the {@link
+     * RecyclerView} to lay out.
+     * <p>
+     * Until they are dispatched, the adapter keeps showing the items as they were at the last
+     * dispatch. Each dispatch captures them with {@link ObservableSnapshotArray#snapshot()}, which
+     * is O(1) for the default {@link ArraySnapshotStorage} and for a {@link
+     * PersistentSnapshotStorage}. The former copies its list once on the next change.
+     * <p>
+     * If you override {@link #onDataChanged()} in batching mode, make sure to call through to
+     * {@code super.onDataChanged()} so that updates are dispatched as soon as they are complete.
+     */
+    public void setBatchingEnabled(boolean enabled) {
+        if (enabled == isBatchingEnabled()) return;
+
+        flushPendingUpdates();
+        if (enabled) {
+            mPendingUpdates = new UpdateBuffer();
+            mShownSnapshots = mSnapshots.snapshot();
+        } else {
+            mPendingUpdates = null;
+            mShownSnapshots = null;
+        }
+    }
+
+    /**
+     * @return true if child events are batched
+     * @see #setBatchingEnabled(boolean)
+     */
+    public boolean isBatchingEnabled() {
+        return mPendingUpdates != null;
+    }
+
+    /**
+     * Dispatch any buffered notifications to the {@link RecyclerView} immediately.
+     *
+     * @see #setBatchingEnabled(boolean)
+     */
+    protected void flushPendingUpdates() {
+        mFlushScheduler.cancel();
+        if (!hasPendingUpdates()) return;
+
+        // The RecyclerView reads the new contents as soon as it is notified
+        UpdateBuffer updates = mPendingUpdates;
+        mPendingUpdates = new UpdateBuffer();
+        mShownSnapshots = mSnapshots.snapshot();
+
+        BatchingListUpdateCallback callback = new BatchingListUpdateCallback(mAdapterCallback);
+        updates.dispatchTo(callback);
+        callback.dispatchLastEvent();
+    }
+
+    private boolean hasPendingUpdates() {
+        return mPendingUpdates != null && !mPendingUpdates.isEmpty();
+    }
+
+    /**
+     * @return the index in the array of the item shown at the given adapter position, or -1 if it
+     * was removed since
+     */
+    private int getArrayIndex(int position) {
+        if (!hasPendingUpdates()) return position;
+
+        DataSnapshot snapshot = mShownSnapshots.get(position);
+        // Rows restored from a disk cache have no snapshot, and are only shown before any update
+        return snapshot == null ? position : mSnapshots.indexOfKey(snapshot.getKey());
+    }
+
     @Override
     public void onChildChanged(ChangeEventListener.EventType type,
                                DataSnapshot snapshot,
                                int index,
                                int oldIndex) {
+        if (isBatchingEnabled()) {
+            onBatchedChildChanged(type, index, oldIndex);
+            return;
+        }
+
         switch (type) {
             case ADDED:
                 notifyItemInserted(index);
                 break;
             case CHANGED:
-                notifyItemChanged(index);
+                notifyItemChanged(index, getChangePayload());
                 break;
             case REMOVED:
                 notifyItemRemoved(index);
@@ -113,8 +218,50 @@ public abstract class FirebaseRecyclerAdapter<T, VH extends RecyclerView.ViewHol
         }
     }
 
+    @Override
+    public void onRangeChanged(RangeEventType type, int index, int count) {
+        ListUpdateCallback callback = isBatchingEnabled() ? mPendingUpdates : mAdapterCallback;
+        switch (type) {
+            case RANGE_INSERTED:
+                callback.onInserted(index, count);
+                break;
+            case RANGE_CHANGED:
+                callback.onChanged(index, count, null);
+                break;
+            case RANGE_REMOVED:
+                callback.onRemoved(index, count);
+                break;
+            default:
+                throw new IllegalStateException("Incomplete case statement");
+        }
+        if (isBatchingEnabled()) mFlushScheduler.schedule();
+    }
+
+    private void onBatchedChildChanged(ChangeEventListener.EventType type,
+                                       int index,
+                                       int oldIndex) {
+        switch (type) {
+            case ADDED:
+                mPendingUpdates.onInserted(index, 1);
+                break;
+            case CHANGED:
+                mPendingUpdates.onChanged(index, 1, getChangePayload());
+                break;
+            case REMOVED:
+                mPendingUpdates.onRemoved(index, 1);
+                break;
+            case MOVED:
+                mPendingUpdates.onMoved(oldIndex, index);
+                break;
+            default:
+                throw new IllegalStateException("Incomplete case statement");
+        }
+        mFlushScheduler.schedule();
+    }
+
     @Override
     public void onDataChanged() {
+        flushPendingUpdates();
     }
 
     @Override
@@ -124,12 +271,15 @@ public abstract class FirebaseRecyclerAdapter<T, VH extends RecyclerView.ViewHol
 
     @Override
     public T getItem(int position) {
-        return mSnapshots.getObject(position);
+        int index = getArrayIndex(position);
+        if (index == -1) return mSnapshots.mParser.parseSnapshot(mShownSnapshots.get(position));
+        return mSnapshots.getObject(index);
     }
 
     @Override
     public DatabaseReference getRef(int position) {
-        return mSnapshots.get(position).getRef();
+        int index = getArrayIndex(position);
+        return index == -1 ? mShownSnapshots.get(position).getRef() : mSnapshots.getRef(index);
     }
 
     @Override
@@ -139,7 +289,7 @@ public abstract class FirebaseRecyclerAdapter<T, VH extends RecyclerView.ViewHol
 
     @Override
     public int getItemCount() {
-        return mSnapshots.size();
+        return hasPendingUpdates() ? mShownSnapshots.size() : mSnapshots.size();
     }
 
     @Override
@@ -164,10 +314,97 @@ public abstract class FirebaseRecyclerAdapter<T, VH extends RecyclerView.ViewHol
         return mModelLayout;
     }
 
+    /**
+     * Set how many items ahead of the scroll direction should be prefetched each time an item is
+     * bound. Prefetching only has an effect if the backing array parses in the background, see
+     * {@link CachingObservableSnapshotArray#setParseExecutor(java.util.concurrent.Executor)}.
+     *
+     * @param distance the number of items to prefetch, or 0 to disable prefetching
+     */
+    public void setPrefetchDistance(int distance) {
+        mPrefetchDistance = distance;
+    }
+
+    /**
+     * Enable or disable partial binds. When enabled, the keys of the changed direct children of an
+     * item are passed to the {@link RecyclerView} as a payload, and items are then rebound with
+     * {@link #populateViewHolder(RecyclerView.ViewHolder, Object, int, Set)}. Finding the keys
+     * compares the children of the old and new snapshot on every change, and a payload makes the
+     * default item animator update the existing view in place instead of cross-fading it, so this
+     * is disabled by default.
+     */
+    public void setPartialBindsEnabled(boolean enabled) {
+        mPartialBindsEnabled = enabled;
+    }
+
+    /**
+     * @return true if changed items are rebound with the keys of their changed children
+     * @see #setPartialBindsEnabled(boolean)
+     */
+    public boolean isPartialBindsEnabled() {
+        return mPartialBindsEnabled;
+    }
+
+    @Nullable
+    private Set<String> getChangePayload() {
+        return mPartialBindsEnabled ? mSnapshots.getChangedChildren() : null;
+    }
+
     @Override
     public void onBindViewHolder(VH viewHolder, int position) {
         T model = getItem(position);
         populateViewHolder(viewHolder, model, position);
+        onItemBound(position);
+    }
+
+    /**
+     * Populates the view with {@link #populateViewHolder(RecyclerView.ViewHolder, Object, int,
+     * Set)} when only some children of the item changed since it was last bound.
+     */
+    @Override
+    public void onBindViewHolder(VH viewHolder, int position, List<Object> payloads) {
+        Set<String> changedChildren = getChangedChildren(payloads);
+        if (changedChildren == null) {
+            onBindViewHolder(viewHolder, position);
+            return;
+        }
+
+        T model = getItem(position);
+        populateViewHolder(viewHolder, model, position, changedChildren);
+        onItemBound(position);
+    }
+
+    /**
+     * @return the union of the changed children in the payloads, or null if the whole item has to
+     * be bound
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<String> getChangedChildren(List<Object> payloads) {
+        if (payloads.isEmpty()) return null;
+
+        Set<String> changedChildren = new HashSet<>();
+        for (Object payload : payloads) {
+            if (!(payload instanceof Set)) return null;
+            changedChildren.addAll((Set<String>) payload);
+        }
+        return changedChildren;
+    }
+
+    private void onItemBound(int position) {
+        int index = getArrayIndex(position);
+        if (index == -1) return;
+
+        mSnapshots.onItemBound(index);
+        prefetchAhead(index);
+    }
+
+    private void prefetchAhead(int position) {
+        int direction = position < mLastBoundPosition ? -1 : 1;
+        mLastBoundPosition = position;
+
+        for (int i = 1; i <= mPrefetchDistance; i++) {
+            mSnapshots.prefetch(position + direction * i);
+        }
     }
 
     /**
@@ -183,4 +420,147 @@ public abstract class FirebaseRecyclerAdapter<T, VH extends RecyclerView.ViewHol
      * @param position   The position in the list of the view being populated
      */
     protected abstract void populateViewHolder(VH viewHolder, T model, int position);
+
+    /**
+     * Called instead of {@link #populateViewHolder(RecyclerView.ViewHolder, Object, int)} when only
+     * some direct children of the item's snapshot changed, so that only the views showing them
+     * need to be updated. Only used once {@link #setPartialBindsEnabled(boolean) enabled}. The
+     * default implementation populates the whole view.
+     *
+     * @param changedChildren the keys of the children which were added, removed or changed since
+     *                        the view was last populated. In batching mode, contiguous changed
+     *                        items share their keys, so some of them may be unchanged for this
+     *                        item.
+     * @see ObservableSnapshotArray#getChangedChildren()
+     */
+    protected void populateViewHolder(VH viewHolder,
+                                      T model,
+                                      int position,
+                                      Set<String> changedChildren) {
+        populateViewHolder(viewHolder, model, position);
+    }
+
+    /**
+     * Forwards collapsed updates to the range notifications of this adapter.
+     */
+    private class AdapterUpdateCallback implements ListUpdateCallback {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+    }
+
+    /**
+     * Records notifications without sending them, so that the {@link RecyclerView} only learns of
+     * them together with the contents they lead to. Contiguous changes are merged, with the union
+     * of their changed children as payload.
+     */
+    private static final class UpdateBuffer implements ListUpdateCallback {
+        private static final int INSERTED = 0;
+        private static final int REMOVED = 1;
+        private static final int MOVED = 2;
+        private static final int CHANGED = 3;
+
+        private final List<Update> mUpdates = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return mUpdates.isEmpty();
+        }
+
+        public void dispatchTo(ListUpdateCallback callback) {
+            for (Update update : mUpdates) {
+                switch (update.mType) {
+                    case INSERTED:
+                        callback.onInserted(update.mPosition, update.mCount);
+                        break;
+                    case REMOVED:
+                        callback.onRemoved(update.mPosition, update.mCount);
+                        break;
+                    case MOVED:
+                        callback.onMoved(update.mPosition, update.mCount);
+                        break;
+                    case CHANGED:
+                        callback.onChanged(update.mPosition, update.mCount, update.mPayload);
+                        break;
+                    default:
+                        throw new IllegalStateException("Incomplete case statement");
+                }
+            }
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mUpdates.add(new Update(INSERTED, position, count, null));
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mUpdates.add(new Update(REMOVED, position, count, null));
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mUpdates.add(new Update(MOVED, fromPosition, toPosition, null));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            Update last = mUpdates.isEmpty() ? null : mUpdates.get(mUpdates.size() - 1);
+            if (last == null
+                    || last.mType != CHANGED
+                    || position > last.mPosition + last.mCount
+                    || position + count < last.mPosition) {
+                mUpdates.add(new Update(CHANGED, position, count, payload));
+                return;
+            }
+
+            int end = Math.max(position + count, last.mPosition + last.mCount);
+            last.mPosition = Math.min(position, last.mPosition);
+            last.mCount = end - last.mPosition;
+            last.mPayload = mergePayloads(last.mPayload, payload);
+        }
+
+        /**
+         * @return the union of two sets of changed children, or null if either item has to be
+         * bound as a whole
+         */
+        @SuppressWarnings("unchecked")
+        private static Object mergePayloads(Object first, Object second) {
+            if (!(first instanceof Set) || !(second instanceof Set)) return null;
+
+            Set<String> merged = new HashSet<>((Set<String>) first);
+            merged.addAll((Set<String>) second);
+            return merged;
+        }
+    }
+
+    private static final class Update {
+        private final int mType;
+        private int mPosition;
+        /** The number of items, or the new position of a moved item. */
+        private int mCount;
+        private Object mPayload;
+
+        public Update(int type, int position, int count, Object payload) {
+            mType = type;
+            mPosition = position;
+            mCount = count;
+            mPayload = payload;
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package com.firebase.ui.database;
+
+import android.app.Activity;
+import android.support.annotation.IdRes;
+import android.support.annotation.LayoutRes;
+import android.util.SparseArray;
+import android.view.View;
+
+import com.google.firebase.database.Query;
+
+/**
+ * A {@link FirebaseListAdapter} which populates its rows through a {@link ViewHolder} that caches
+ * their sub-views, so that rebinding a recycled row doesn't search its view hierarchy again.
+ *
+ * @param <T> The class type to use as a model for the data contained in the children of the given
+ *            Firebase location
+ */
+public abstract class FirebaseViewHolderListAdapter<T> extends FirebaseListAdapter<T> {
+    /**
+     * @see FirebaseListAdapter#FirebaseListAdapter(Activity, ObservableSnapshotArray, int)
+     */
+    public FirebaseViewHolderListAdapter(Activity activity,
+                                         ObservableSnapshotArray<T> snapshots,
+                                         @LayoutRes int modelLayout) {
+        super(activity, snapshots, modelLayout);
+    }
+
+    /**
+     * @see FirebaseListAdapter#FirebaseListAdapter(Activity, SnapshotParser, int, Query)
+     */
+    public FirebaseViewHolderListAdapter(Activity activity,
+                                         SnapshotParser<T> parser,
+                                         @LayoutRes int modelLayout,
+                                         Query query) {
+        super(activity, parser, modelLayout, query);
+    }
+
+    /**
+     * @see FirebaseListAdapter#FirebaseListAdapter(Activity, Class, int, Query)
+     */
+    public FirebaseViewHolderListAdapter(Activity activity,
+                                         Class<T> modelClass,
+                                         @LayoutRes int modelLayout,
+                                         Query query) {
+        super(activity, modelClass, modelLayout, query);
+    }
+
+    @Override
+    protected final void populateView(View v, T model, int position) {
+        populateView(ViewHolder.from(v), model, position);
+    }
+
+    /**
+     * Like {@link FirebaseListAdapter#populateView(View, Object, int)}, but with a {@link
+     * ViewHolder} attached to the row. Prefer {@link ViewHolder#getView(int)} over {@link
+     * View#findViewById(int)} so that each sub-view is only looked up once.
+     *
+     * @param holder   The holder of the view to populate
+     * @param model    The object containing the data used to populate the view
+     * @param position The position in the list of the view being populated
+     */
+    protected abstract void populateView(ViewHolder holder, T model, int position);
+
+    /**
+     * Caches the sub-views of a list item so they only have to be looked up once per inflated view.
+     */
+    public static class ViewHolder {
+        private final View mItemView;
+        private final SparseArray<View> mViews = new SparseArray<>();
+
+        public ViewHolder(View itemView) {
+            mItemView = itemView;
+        }
+
+        /**
+         * Get the holder attached to the given list item view, attaching a new one if it doesn't
+         * have any yet. The holder is kept under a tag key of its own, so the view's plain tag
+         * remains free for the app to use.
+         */
+        public static ViewHolder from(View itemView) {
+            ViewHolder holder = (ViewHolder) itemView.getTag(R.id.firebaseui_view_holder);
+            if (holder == null) {
+                holder = new ViewHolder(itemView);
+                itemView.setTag(R.id.firebaseui_view_holder, holder);
+            }
+            return holder;
+        }
+
+        public View getItemView() {
+            return mItemView;
+        }
+
+        /**
+         * Find a sub-view of the list item by id, only searching the view hierarchy the first time.
+         */
+        @SuppressWarnings("unchecked")
+        public <V extends View> V getView(@IdRes int id) {
+            View view = mViews.get(id);
+            if (view == null) {
+                view = mItemView.findViewById(id);
+                mViews.put(id, view);
+            }
+            return (V) view;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.firebase.ui.database;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.RestrictTo;
+import android.view.Choreographer;
+
+/**
+ * Runs a task on the main thread at the start of the next frame, no matter how many times it is
+ * scheduled in between. Uses {@link Choreographer} where available and falls back to a delayed
+ * {@link Handler} post on older devices.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+class FrameScheduler {
+    private static final long FALLBACK_FRAME_DELAY_MILLIS = 16;
+
+    private final Runnable mTask;
+    private final Runnable mDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            mIsScheduled = false;
+            mTask.run();
+        }
+    };
+    private Handler mHandler;
+    private FrameCallbackCompat mFrameCallback;
+
+    private boolean mIsScheduled;
+
+    public FrameScheduler(Runnable task) {
+        mTask = Preconditions.checkNotNull(task);
+    }
+
+    /**
+     * Run the task on the next frame unless it is already scheduled.
+     */
+    public void schedule() {
+        if (mIsScheduled) return;
+        mIsScheduled = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mFrameCallback == null) mFrameCallback = new FrameCallbackCompat(mDispatcher);
+            mFrameCallback.post();
+        } else {
+            if (mHandler == null) mHandler = new Handler(Looper.getMainLooper());
+            mHandler.postDelayed(mDispatcher, FALLBACK_FRAME_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Cancel the pending run of the task, if any.
+     */
+    public void cancel() {
+        if (!mIsScheduled) return;
+        mIsScheduled = false;
+
+        if (mFrameCallback != null) mFrameCallback.remove();
+        if (mHandler != null) mHandler.removeCallbacks(mDispatcher);
+    }
+
+    public boolean isScheduled() {
+        return mIsScheduled;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class FrameCallbackCompat implements Choreographer.FrameCallback {
+        private final Runnable mRunnable;
+
+        FrameCallbackCompat(Runnable runnable) {
+            mRunnable = runnable;
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mRunnable.run();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares value listeners between everyone joining the same {@link DatabaseReference}. Each unique
+ * ref is listened to once, no matter how many {@link ValueEventListener}s are subscribed to it,
+ * and every snapshot is handed to all of them. The database listener is removed once the last
+ * subscriber unsubscribes.
+ * <p>
+ * Use {@link FirebaseIndexArray#setJoinListenerPool(JoinListenerPool)} to share joins between
+ * arrays, for example several lists that show the same user profiles. The pool can only be used
+ * from the main thread.
+ */
+@MainThread
+public final class JoinListenerPool {
+    private static final JoinListenerPool INSTANCE = new JoinListenerPool();
+
+    private final Map<DatabaseReference, Subscription> mSubscriptions = new HashMap<>();
+
+    /**
+     * @return the pool shared by the whole process
+     */
+    @NonNull
+    public static JoinListenerPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start handing {@code ref}'s snapshots to the given listener. If the ref is already listened
+     * to and its data has been loaded, the listener is called right away with the latest snapshot.
+     *
+     * @return the listener, to be passed to {@link #unsubscribe(DatabaseReference,
+     * ValueEventListener)}
+     */
+    @NonNull
+    public ValueEventListener subscribe(@NonNull DatabaseReference ref,
+                                        @NonNull ValueEventListener listener) {
+        Preconditions.checkNotNull(listener);
+
+        Subscription subscription = mSubscriptions.get(ref);
+        if (subscription == null) {
+            subscription = new Subscription(ref);
+            mSubscriptions.put(ref, subscription);
+            subscription.mListeners.add(listener);
+            ref.addValueEventListener(subscription);
+        } else {
+            subscription.mListeners.add(listener);
+            if (subscription.mSnapshot != null) listener.onDataChange(subscription.mSnapshot);
+        }
+
+        return listener;
+    }
+
+    /**
+     * Stop handing {@code ref}'s snapshots to the given listener. The ref is no longer listened to
+     * once it has no subscribers left.
+     */
+    public void unsubscribe(@NonNull DatabaseReference ref, @NonNull ValueEventListener listener) {
+        Subscription subscription = mSubscriptions.get(ref);
+        if (subscription == null || !subscription.mListeners.remove(listener)) return;
+
+        if (subscription.mListeners.isEmpty()) {
+            mSubscriptions.remove(ref);
+            ref.removeEventListener(subscription);
+        }
+    }
+
+    /**
+     * @return the number of listeners subscribed to the given ref
+     */
+    public int getSubscriberCount(@NonNull DatabaseReference ref) {
+        Subscription subscription = mSubscriptions.get(ref);
+        return subscription == null ? 0 : subscription.mListeners.size();
+    }
+
+    private final class Subscription implements ValueEventListener {
+        private final DatabaseReference mRef;
+        private final List<ValueEventListener> mListeners = new ArrayList<>();
+        private DataSnapshot mSnapshot;
+
+        public Subscription(DatabaseReference ref) {
+            mRef = ref;
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+            mSnapshot = snapshot;
+            // Listeners may unsubscribe while being notified
+            for (ValueEventListener listener : new ArrayList<>(mListeners)) {
+                if (mListeners.contains(listener)) listener.onDataChange(snapshot);
+            }
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            // The database has already removed this listener
+            if (mSubscriptions.get(mRef) == this) mSubscriptions.remove(mRef);
+            for (ValueEventListener listener : new ArrayList<>(mListeners)) {
+                listener.onCancelled(error);
+            }
+        }
+    }
+}
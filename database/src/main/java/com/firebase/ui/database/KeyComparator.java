@@ -0,0 +1,44 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.RestrictTo;
+
+import java.util.Comparator;
+
+/**
+ * Orders keys the way {@code orderByKey()} queries do: keys that parse as 32-bit integers come
+ * first in numeric order, followed by every other key in lexicographic order.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+final class KeyComparator implements Comparator<String> {
+    public static final KeyComparator INSTANCE = new KeyComparator();
+
+    private KeyComparator() {
+    }
+
+    @Override
+    public int compare(String key1, String key2) {
+        Integer int1 = tryParseInt(key1);
+        Integer int2 = tryParseInt(key2);
+
+        if (int1 != null && int2 != null) {
+            return int1.compareTo(int2);
+        } else if (int1 != null) {
+            return -1;
+        } else if (int2 != null) {
+            return 1;
+        } else {
+            return key1.compareTo(key2);
+        }
+    }
+
+    private static Integer tryParseInt(String key) {
+        // Leading zeros and "-0" aren't integers to the database
+        if (key.isEmpty() || key.length() > 11 || !key.matches("-?(0|[1-9][0-9]*)")
+                || key.equals("-0")) {
+            return null;
+        }
+
+        long value = Long.parseLong(key);
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? null : (int) value;
+    }
+}
@@ -0,0 +1,115 @@
+package com.firebase.ui.database;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.support.annotation.NonNull;
+import android.support.v4.util.LruCache;
+
+/**
+ * An {@link ObjectCache} which evicts the least recently used objects once its maximum size is
+ * reached. By default every object counts as one, use a {@link Sizer} to bound the cache by an
+ * estimate of its weight instead.
+ * <p>
+ * The cache also trims itself when the system is low on memory. For that to happen, it needs to be
+ * registered with {@link android.content.Context#registerComponentCallbacks}:
+ * <pre>
+ * LruObjectCache&lt;Chat&gt; cache = new LruObjectCache&lt;&gt;(500);
+ * getApplicationContext().registerComponentCallbacks(cache);
+ * array.setObjectCache(cache);
+ * </pre>
+ * Don't forget to unregister it once the array is no longer used.
+ *
+ * @param <T> the type of the cached objects
+ */
+public class LruObjectCache<T> implements ObjectCache<T>, ComponentCallbacks2 {
+    private final LruCache<String, T> mCache;
+
+    /**
+     * Create a cache holding at most {@code maxCount} objects.
+     */
+    public LruObjectCache(int maxCount) {
+        this(maxCount, null);
+    }
+
+    /**
+     * Create a cache whose objects weigh at most {@code maxSize} in total, as estimated by the
+     * given {@link Sizer}.
+     */
+    public LruObjectCache(int maxSize, final Sizer<? super T> sizer) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+
+        mCache = new LruCache<String, T>(maxSize) {
+            @Override
+            protected int sizeOf(String key, T object) {
+                return sizer == null ? 1 : sizer.sizeOf(key, object);
+            }
+        };
+    }
+
+    @Override
+    public T get(@NonNull String key) {
+        return mCache.get(key);
+    }
+
+    @Override
+    public void put(@NonNull String key, @NonNull T object) {
+        mCache.put(key, object);
+    }
+
+    @Override
+    public void remove(@NonNull String key) {
+        mCache.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * @return the current size of the cache, in the units of the {@link Sizer}
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    /**
+     * @return the maximum size of the cache, in the units of the {@link Sizer}
+     */
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            // The app is likely to be killed soon, free everything we can
+            clear();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Cached objects don't depend on the configuration
+    }
+
+    /**
+     * Estimates the weight of a cached object.
+     *
+     * @param <T> the type of the cached objects
+     */
+    public interface Sizer<T> {
+        /**
+         * @return the size of the object, in units consistent with the cache's maximum size. Must
+         * not change while the object is cached.
+         */
+        int sizeOf(@NonNull String key, @NonNull T object);
+    }
+}
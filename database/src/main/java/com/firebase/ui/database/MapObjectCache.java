@@ -0,0 +1,35 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.RestrictTo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An unbounded {@link ObjectCache} which keeps every object until it is removed.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+class MapObjectCache<T> implements ObjectCache<T> {
+    private final Map<String, T> mObjects = new HashMap<>();
+
+    @Override
+    public T get(@NonNull String key) {
+        return mObjects.get(key);
+    }
+
+    @Override
+    public void put(@NonNull String key, @NonNull T object) {
+        mObjects.put(key, object);
+    }
+
+    @Override
+    public void remove(@NonNull String key) {
+        mObjects.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mObjects.clear();
+    }
+}
@@ -0,0 +1,36 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.List;
+
+/**
+ * Handles joining every key with data from several locations, for example a message with its
+ * author's profile and its reactions.
+ *
+ * @see CompositeSnapshotParser
+ */
+public interface MultiJoinResolver {
+    /**
+     * Called after an {@link ChildEventListener#onChildAdded(DataSnapshot, String)} event from
+     * {@code keyRef}.
+     *
+     * @param keySnapshot the snapshot supplied in {@code onChildAdded}
+     * @return The refs containing the data to combine into the key's item. The first ref holds the
+     * item's own data: it must be named after the key, and the item only exists while it does.
+     * Other refs may be shared between keys.
+     */
+    @NonNull
+    List<DatabaseReference> onJoin(DataSnapshot keySnapshot);
+
+    /**
+     * Called when the first ref of a key has no data.
+     *
+     * @see JoinResolver#onJoinFailed(DataSnapshot, int)
+     */
+    void onJoinFailed(DataSnapshot snapshot, int index);
+}
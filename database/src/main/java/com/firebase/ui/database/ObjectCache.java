@@ -0,0 +1,34 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Holds the objects parsed by a {@link CachingObservableSnapshotArray}, by snapshot key. Entries
+ * may be dropped at any time, in which case the object is parsed again the next time it is needed.
+ *
+ * @param <T> the type of the cached objects
+ * @see LruObjectCache
+ */
+public interface ObjectCache<T> {
+    /**
+     * @return the cached object for the key, or null if there is none
+     */
+    @Nullable
+    T get(@NonNull String key);
+
+    /**
+     * Cache the object parsed from the snapshot with the given key.
+     */
+    void put(@NonNull String key, @NonNull T object);
+
+    /**
+     * Remove the cached object for the key, if any.
+     */
+    void remove(@NonNull String key);
+
+    /**
+     * Remove all cached objects.
+     */
+    void clear();
+}
@@ -0,0 +1,27 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts parsed objects to and from the compact binary format stored by a {@link
+ * SnapshotDiskCache}. {@link #read(DataInput)} must read exactly what {@link #write(Object,
+ * DataOutput)} wrote.
+ *
+ * @param <T> the type of the stored objects
+ */
+public interface ObjectCodec<T> {
+    /**
+     * Write the object to the output. Called on a background thread.
+     */
+    void write(@NonNull T object, @NonNull DataOutput out) throws IOException;
+
+    /**
+     * Read an object written by {@link #write(Object, DataOutput)}. Called on the main thread.
+     */
+    @NonNull
+    T read(@NonNull DataInput in) throws IOException;
+}
@@ -1,15 +1,28 @@
 package com.firebase.ui.database;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
 
 import java.util.ArrayList;
 import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Exposes a collection of items in Firebase as a {@link List} of {@link DataSnapshot}. To observe
@@ -22,6 +35,43 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
     protected final SnapshotParser<E> mParser;
 
     private boolean mHasDataChanged = false;
+    /** The number of changes made to the snapshots so far, see {@link #snapshot()}. */
+    private long mVersion;
+    /**
+     * Run when the last listener is removed, before subclasses stop listening.
+     *
+     * @see SnapshotArrayRegistry
+     */
+    private Runnable mLastListenerRemovedCallback;
+    /** The listeners called on an executor, and the listeners forwarding events to them. */
+    private final Map<ChangeEventListener, ExecutorChangeEventListener> mExecutorListeners =
+            new HashMap<>();
+
+    /**
+     * The snapshot most recently replaced by a subclass, until the matching {@link
+     * ChangeEventListener.EventType#CHANGED} event is sent.
+     */
+    private DataSnapshot mReplacedSnapshot;
+    /** The previous and new snapshots of the CHANGED event being sent, if known. */
+    private DataSnapshot mChangingPrevious;
+    private DataSnapshot mChangingSnapshot;
+    private Set<String> mChangedChildren;
+
+    private long mConflationMillis;
+    /**
+     * When a CHANGED event was last sent for each recently changed key, oldest first. Keys are
+     * dropped once they haven't changed for a whole interval.
+     */
+    private final Map<String, Long> mLastChangedAt = new LinkedHashMap<>();
+    /** The keys whose CHANGED event is held back, with the snapshot they last showed, if known. */
+    private final Map<String, DataSnapshot> mConflatedChanges = new LinkedHashMap<>();
+    private Handler mConflationHandler;
+    private final Runnable mConflationFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushConflatedChanges();
+        }
+    };
 
     /**
      * Create an ObservableSnapshotArray where snapshots are parsed as objects of a particular
@@ -46,15 +96,24 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
     /**
      * Attach a {@link ChangeEventListener} to this array. The listener will receive one {@link
      * ChangeEventListener.EventType#ADDED} event for each item that already exists in the array at
-     * the time of attachment, and then receive all future child events.
+     * the time of attachment, and then receive all future child events. A {@link
+     * RangeChangeEventListener} will instead receive a single {@link
+     * RangeChangeEventListener.RangeEventType#RANGE_INSERTED} event for the existing items.
      */
     @CallSuper
     public ChangeEventListener addChangeEventListener(@NonNull ChangeEventListener listener) {
         Preconditions.checkNotNull(listener);
 
         mListeners.add(listener);
-        for (int i = 0; i < size(); i++) {
-            listener.onChildChanged(ChangeEventListener.EventType.ADDED, get(i), i, -1);
+        if (listener instanceof RangeChangeEventListener) {
+            if (!isEmpty()) {
+                ((RangeChangeEventListener) listener).onRangeChanged(
+                        RangeChangeEventListener.RangeEventType.RANGE_INSERTED, 0, size());
+            }
+        } else {
+            for (int i = 0; i < size(); i++) {
+                listener.onChildChanged(ChangeEventListener.EventType.ADDED, get(i), i, -1);
+            }
         }
         if (mHasDataChanged) {
             listener.onDataChanged();
@@ -63,16 +122,46 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
         return listener;
     }
 
+    /**
+     * Attach a {@link ChangeEventListener} which is called on the given executor instead of the
+     * main thread, for consumers such as search indexers which shouldn't slow down the UI. The
+     * listener receives the same events, in the same order, one at a time. It must only use the
+     * snapshots and indexes it is given: by the time it runs, this array may have changed.
+     *
+     * @see #addChangeEventListener(ChangeEventListener)
+     */
+    public ChangeEventListener addChangeEventListener(@NonNull ChangeEventListener listener,
+                                                      @NonNull Executor executor) {
+        ExecutorChangeEventListener forwarder =
+                new ExecutorChangeEventListener(listener, executor);
+        mExecutorListeners.put(listener, forwarder);
+        addChangeEventListener(forwarder);
+        return listener;
+    }
+
     /**
      * Detach a {@link com.google.firebase.database.ChildEventListener} from this array.
      */
     @CallSuper
     public void removeChangeEventListener(@NonNull ChangeEventListener listener) {
-        mListeners.remove(listener);
+        ExecutorChangeEventListener forwarder = mExecutorListeners.remove(listener);
+        if (forwarder == null && listener instanceof ExecutorChangeEventListener) {
+            // Removed through removeAllListeners()
+            forwarder = (ExecutorChangeEventListener) listener;
+            mExecutorListeners.values().remove(forwarder);
+        }
+        if (forwarder != null) forwarder.remove();
+        mListeners.remove(forwarder == null ? listener : forwarder);
+
+        // Give a lingering registry the chance to keep this array alive
+        if (!isListening() && mLastListenerRemovedCallback != null) {
+            mLastListenerRemovedCallback.run();
+        }
 
         // Reset mHasDataChanged if there are no more listeners
         if (!isListening()) {
             mHasDataChanged = false;
+            clearConflatedChanges();
         }
     }
 
@@ -88,8 +177,29 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
         }
     }
 
+    void setLastListenerRemovedCallback(@Nullable Runnable callback) {
+        mLastListenerRemovedCallback = callback;
+    }
+
+    /**
+     * Add a listener which only keeps this array listening, from within the last listener removed
+     * callback. Unlike {@link #addChangeEventListener(ChangeEventListener)}, existing children
+     * aren't replayed and subclasses don't start listening again since they haven't stopped yet.
+     */
+    void addKeepAliveListener(ChangeEventListener listener) {
+        mListeners.add(listener);
+    }
+
     protected abstract List<DataSnapshot> getSnapshots();
 
+    /**
+     * Must be called by subclasses after each change to the snapshots they show, whether or not an
+     * event is sent for it, so that {@link SnapshotArrayVersion#getVersion()} changes with them.
+     */
+    protected final void onSnapshotsChanged() {
+        mVersion++;
+    }
+
     protected final void notifyChangeEventListeners(ChangeEventListener.EventType type,
                                                     DataSnapshot snapshot,
                                                     int index) {
@@ -100,8 +210,243 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
                                                     DataSnapshot snapshot,
                                                     int index,
                                                     int oldIndex) {
+        DataSnapshot previous = mReplacedSnapshot;
+        mReplacedSnapshot = null;
+        if (type != ChangeEventListener.EventType.CHANGED
+                || previous == null
+                || snapshot == null
+                || !previous.getKey().equals(snapshot.getKey())) {
+            previous = null;
+        }
+
+        if (mConflationMillis > 0 && snapshot != null) {
+            if (type == ChangeEventListener.EventType.CHANGED) {
+                if (conflate(snapshot.getKey(), previous)) return;
+            } else if (type == ChangeEventListener.EventType.REMOVED) {
+                forgetChanges(snapshot.getKey());
+            }
+        }
+
+        dispatchChangeEvent(type, snapshot, index, oldIndex, previous);
+    }
+
+    private void dispatchChangeEvent(ChangeEventListener.EventType type,
+                                     DataSnapshot snapshot,
+                                     int index,
+                                     int oldIndex,
+                                     DataSnapshot previous) {
+        mChangingPrevious = previous;
+        mChangingSnapshot = snapshot;
+        try {
+            for (ChangeEventListener listener : mListeners) {
+                listener.onChildChanged(type, snapshot, index, oldIndex);
+            }
+        } finally {
+            mChangingPrevious = null;
+            mChangingSnapshot = null;
+            mChangedChildren = null;
+        }
+    }
+
+    /**
+     * Send {@link ChangeEventListener.EventType#CHANGED} events for the same child at most once per
+     * interval, for children which change many times per second such as scores or counters. A
+     * change arriving within the interval is held back and sent once the interval is over, with
+     * the child's latest snapshot and index. Other events are never held back, and removing a
+     * child drops its pending change. Must be called from the main thread.
+     *
+     * @param millis the minimum interval between two CHANGED events for the same child, or 0 to
+     *               send every change right away
+     */
+    public void setChangeConflationMillis(long millis) {
+        mConflationMillis = Math.max(millis, 0);
+        if (mConflationMillis == 0) flushConflatedChanges();
+        if (mConflationMillis > 0 && mConflationHandler == null) {
+            mConflationHandler = new Handler(Looper.getMainLooper());
+        }
+    }
+
+    /**
+     * @return true if the CHANGED event for the key has to be held back
+     */
+    private boolean conflate(String key, DataSnapshot previous) {
+        // Keep the snapshot last shown, so that the changed children cover every held back change
+        if (mConflatedChanges.containsKey(key)) return true;
+
+        long now = SystemClock.uptimeMillis();
+        Long lastChangedAt = mLastChangedAt.get(key);
+        if (lastChangedAt == null || now - lastChangedAt >= mConflationMillis) {
+            recordChange(key, now);
+            return false;
+        }
+
+        mConflatedChanges.put(key, previous);
+        if (mConflatedChanges.size() == 1) {
+            mConflationHandler.postDelayed(mConflationFlush,
+                                           lastChangedAt + mConflationMillis - now);
+        }
+        return true;
+    }
+
+    private void flushConflatedChanges() {
+        if (mConflationHandler != null) mConflationHandler.removeCallbacks(mConflationFlush);
+
+        long now = SystemClock.uptimeMillis();
+        long nextFlushAt = Long.MAX_VALUE;
+        for (String key : new ArrayList<>(mConflatedChanges.keySet())) {
+            Long lastChangedAt = mLastChangedAt.get(key);
+            long dueAt = lastChangedAt == null ? now : lastChangedAt + mConflationMillis;
+            if (dueAt > now) {
+                nextFlushAt = Math.min(nextFlushAt, dueAt);
+                continue;
+            }
+
+            DataSnapshot previous = mConflatedChanges.remove(key);
+            recordChange(key, now);
+            int index = indexOfKey(key);
+            if (index != -1) {
+                dispatchChangeEvent(ChangeEventListener.EventType.CHANGED,
+                                    get(index),
+                                    index,
+                                    -1,
+                                    previous);
+            }
+        }
+
+        if (nextFlushAt != Long.MAX_VALUE) {
+            mConflationHandler.postDelayed(mConflationFlush, nextFlushAt - now);
+        }
+    }
+
+    /**
+     * Remember that a CHANGED event for the key was sent now, and forget the keys which haven't
+     * changed for a whole interval.
+     */
+    private void recordChange(String key, long now) {
+        for (Iterator<Long> i = mLastChangedAt.values().iterator(); i.hasNext(); ) {
+            if (now - i.next() < mConflationMillis) break;
+            i.remove();
+        }
+        // Re-insert the key to keep the map ordered by time
+        mLastChangedAt.remove(key);
+        mLastChangedAt.put(key, now);
+    }
+
+    private void forgetChanges(String key) {
+        mConflatedChanges.remove(key);
+        mLastChangedAt.remove(key);
+    }
+
+    private void clearConflatedChanges() {
+        if (mConflationHandler != null) mConflationHandler.removeCallbacks(mConflationFlush);
+        mConflatedChanges.clear();
+        mLastChangedAt.clear();
+    }
+
+    /**
+     * @return the index of the child with the given key, or -1 if there is none. The default
+     * implementation looks through every child.
+     */
+    protected int indexOfKey(String key) {
+        for (int i = 0; i < size(); i++) {
+            if (key.equals(getKey(i))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Remember the snapshot which was just replaced, so that listeners of the following {@link
+     * ChangeEventListener.EventType#CHANGED} event can find out which of its children changed.
+     *
+     * @see #getChangedChildren()
+     */
+    protected final void rememberReplacedSnapshot(@Nullable DataSnapshot previous) {
+        mReplacedSnapshot = previous;
+    }
+
+    /**
+     * While a {@link ChangeEventListener.EventType#CHANGED} event is being sent, get the keys of
+     * the snapshot's direct children which were added, removed or changed.
+     *
+     * @return the changed children, or null if they aren't known, for example because the
+     * snapshot has no children or its object also depends on other data
+     */
+    @Nullable
+    public Set<String> getChangedChildren() {
+        if (mChangingPrevious == null) return null;
+        if (mChangedChildren == null) {
+            mChangedChildren = diffChildren(mChangingPrevious, mChangingSnapshot);
+        }
+        return mChangedChildren.isEmpty() ? null : mChangedChildren;
+    }
+
+    private static Set<String> diffChildren(DataSnapshot previous, DataSnapshot snapshot) {
+        Set<String> changed = new HashSet<>();
+        if (!previous.hasChildren() || !snapshot.hasChildren()) return changed;
+
+        Map<String, Object> previousValues = new HashMap<>();
+        for (DataSnapshot child : previous.getChildren()) {
+            previousValues.put(child.getKey(), child.getValue(true));
+        }
+        for (DataSnapshot child : snapshot.getChildren()) {
+            Object value = previousValues.remove(child.getKey());
+            if (value == null || !value.equals(child.getValue(true))) changed.add(child.getKey());
+        }
+        changed.addAll(previousValues.keySet());
+        return changed;
+    }
+
+    /**
+     * Notify listeners of a change to a contiguous range of children. {@link
+     * RangeChangeEventListener}s receive a single range event while other listeners receive the
+     * equivalent sequence of single-child events.
+     *
+     * @param index     the index of the first child in the range
+     * @param snapshots the snapshots in the range. For insertions and changes these are the new
+     *                  snapshots, for removals the ones that were removed.
+     */
+    protected final void notifyChangeEventListenersOfRange(
+            RangeChangeEventListener.RangeEventType type,
+            int index,
+            List<DataSnapshot> snapshots) {
+        if (snapshots.isEmpty()) return;
+        if (mConflationMillis > 0 && type == RangeChangeEventListener.RangeEventType.RANGE_REMOVED) {
+            for (DataSnapshot snapshot : snapshots) {
+                if (snapshot != null) forgetChanges(snapshot.getKey());
+            }
+        }
+
         for (ChangeEventListener listener : mListeners) {
-            listener.onChildChanged(type, snapshot, index, oldIndex);
+            if (listener instanceof RangeChangeEventListener) {
+                ((RangeChangeEventListener) listener).onRangeChanged(type, index, snapshots.size());
+                continue;
+            }
+
+            for (int i = 0; i < snapshots.size(); i++) {
+                switch (type) {
+                    case RANGE_INSERTED:
+                        listener.onChildChanged(ChangeEventListener.EventType.ADDED,
+                                                snapshots.get(i),
+                                                index + i,
+                                                -1);
+                        break;
+                    case RANGE_CHANGED:
+                        listener.onChildChanged(ChangeEventListener.EventType.CHANGED,
+                                                snapshots.get(i),
+                                                index + i,
+                                                -1);
+                        break;
+                    case RANGE_REMOVED:
+                        // Each removal shifts the rest of the range down to the same index
+                        listener.onChildChanged(ChangeEventListener.EventType.REMOVED,
+                                                snapshots.get(i),
+                                                index,
+                                                -1);
+                        break;
+                    default:
+                        throw new IllegalStateException("Incomplete case statement");
+                }
+            }
         }
     }
 
@@ -118,6 +463,32 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
         }
     }
 
+    /**
+     * Capture the current contents of the array, for example to hand them to a background thread.
+     * Must be called on the main thread, but the returned version can be read from any thread and
+     * isn't affected by later changes.
+     * <p>
+     * This is O(1) for arrays backed by the default {@link ArraySnapshotStorage}, which copies its
+     * list on the next change instead, or by a {@link PersistentSnapshotStorage}, which shares its
+     * nodes with the version. Other arrays copy their snapshots.
+     */
+    @NonNull
+    public SnapshotArrayVersion snapshot() {
+        return new SnapshotArrayVersion(mVersion, getImmutableSnapshots());
+    }
+
+    /**
+     * @return an immutable list of the snapshots currently shown, see {@link #snapshot()}
+     */
+    @NonNull
+    protected List<DataSnapshot> getImmutableSnapshots() {
+        List<DataSnapshot> snapshots = getSnapshots();
+        if (snapshots instanceof SnapshotStorage) {
+            return ((SnapshotStorage) snapshots).toImmutableList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(this));
+    }
+
     /**
      * @return true if {@link FirebaseArray} is listening for change events from the Firebase
      * database, false otherwise
@@ -130,7 +501,7 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
      * @return true if the provided {@link ChangeEventListener} is listening for changes
      */
     public final boolean isListening(ChangeEventListener listener) {
-        return mListeners.contains(listener);
+        return mListeners.contains(listener) || mExecutorListeners.containsKey(listener);
     }
 
     /**
@@ -142,6 +513,47 @@ public abstract class ObservableSnapshotArray<E> extends AbstractList<DataSnapsh
         return mParser.parseSnapshot(get(index));
     }
 
+    /**
+     * @return true if the row at the given index is a placeholder without a snapshot, see {@link
+     * PlaceholderEventListener}. The default implementation returns false.
+     */
+    public boolean isPlaceholder(int index) {
+        return false;
+    }
+
+    /**
+     * Hint that the object at the given index is likely to be requested soon, for example because
+     * it is about to be scrolled into view. The default implementation does nothing.
+     *
+     * @see CachingObservableSnapshotArray#setParseExecutor(java.util.concurrent.Executor)
+     */
+    public void prefetch(int index) {
+    }
+
+    /**
+     * Called by adapters when the item at the given index is bound to a view. Implementations that
+     * only load part of their data can use this to follow the viewport. The default implementation
+     * does nothing.
+     *
+     * @see FirebasePagedArray
+     */
+    public void onItemBound(int index) {
+    }
+
+    /**
+     * @return the key of the child at the given index
+     */
+    public String getKey(int index) {
+        return get(index).getKey();
+    }
+
+    /**
+     * @return the location of the child at the given index
+     */
+    public DatabaseReference getRef(int index) {
+        return get(index).getRef();
+    }
+
     @Override
     public DataSnapshot get(int index) {
         return getSnapshots().get(index);
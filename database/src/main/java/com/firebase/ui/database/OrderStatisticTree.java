@@ -0,0 +1,318 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.RestrictTo;
+
+import java.util.AbstractList;
+
+/**
+ * A {@link java.util.List} implemented as a balanced (AVL) binary tree where every node knows the
+ * size of its subtree. Indexed reads, inserts and removals are all O(log n).
+ * <p>
+ * Nodes are stable handles: once inserted, a {@link Node} represents the same element until it is
+ * removed, which lets callers find the current index of an element in O(log n) with {@link
+ * #indexOf(Node)}.
+ * <p>
+ * Nodes can also be marked, in which case the tree keeps track of how many marked nodes precede any
+ * given node. This turns the tree into a positional index of a sparse sub-list: the index of a
+ * marked node among the other marked nodes is available in O(log n) with {@link
+ * #markedIndexOf(Node)}.
+ *
+ * @param <E> the type of elements held in the tree
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+class OrderStatisticTree<E> extends AbstractList<E> {
+    private Node<E> mRoot;
+
+    @Override
+    public E get(int index) {
+        return getNode(index).mValue;
+    }
+
+    @Override
+    public int size() {
+        return size(mRoot);
+    }
+
+    @Override
+    public E set(int index, E value) {
+        Node<E> node = getNode(index);
+        E old = node.mValue;
+        node.mValue = value;
+        return old;
+    }
+
+    @Override
+    public void add(int index, E value) {
+        insertNode(index, value);
+    }
+
+    @Override
+    public E remove(int index) {
+        Node<E> node = getNode(index);
+        removeNode(node);
+        return node.mValue;
+    }
+
+    @Override
+    public void clear() {
+        mRoot = null;
+        modCount++;
+    }
+
+    /**
+     * @return the node holding the element at the given index
+     */
+    public Node<E> getNode(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        Node<E> node = mRoot;
+        while (true) {
+            int leftSize = size(node.mLeft);
+            if (index < leftSize) {
+                node = node.mLeft;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.mRight;
+            }
+        }
+    }
+
+    /**
+     * @return the current index of the given node, which must belong to this tree
+     */
+    public int indexOf(Node<E> node) {
+        int index = size(node.mLeft);
+        while (node.mParent != null) {
+            if (node == node.mParent.mRight) index += size(node.mParent.mLeft) + 1;
+            node = node.mParent;
+        }
+        return index;
+    }
+
+    /**
+     * @return the number of marked nodes before the given node, which must belong to this tree
+     */
+    public int markedIndexOf(Node<E> node) {
+        int index = markedCount(node.mLeft);
+        while (node.mParent != null) {
+            Node<E> parent = node.mParent;
+            if (node == parent.mRight) {
+                index += markedCount(parent.mLeft) + (parent.mMarked ? 1 : 0);
+            }
+            node = parent;
+        }
+        return index;
+    }
+
+    /**
+     * @return the total number of marked nodes in the tree
+     */
+    public int getMarkedCount() {
+        return markedCount(mRoot);
+    }
+
+    /**
+     * Mark or unmark the given node, which must belong to this tree.
+     */
+    public void setMarked(Node<E> node, boolean marked) {
+        if (node.mMarked == marked) return;
+
+        node.mMarked = marked;
+        for (Node<E> ancestor = node; ancestor != null; ancestor = ancestor.mParent) {
+            update(ancestor);
+        }
+    }
+
+    /**
+     * Insert a value at the given index.
+     *
+     * @return the node holding the inserted value
+     */
+    public Node<E> insertNode(int index, E value) {
+        int size = size();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        Node<E> node = new Node<>(value);
+        if (mRoot == null) {
+            mRoot = node;
+        } else if (index == size) {
+            // Append as the right-most node
+            Node<E> parent = mRoot;
+            while (parent.mRight != null) parent = parent.mRight;
+            parent.mRight = node;
+            node.mParent = parent;
+        } else {
+            // Insert directly before the node currently at the index
+            Node<E> parent = getNode(index);
+            if (parent.mLeft == null) {
+                parent.mLeft = node;
+            } else {
+                parent = parent.mLeft;
+                while (parent.mRight != null) parent = parent.mRight;
+                parent.mRight = node;
+            }
+            node.mParent = parent;
+        }
+
+        rebalance(node.mParent);
+        modCount++;
+        return node;
+    }
+
+    /**
+     * Remove the given node, which must belong to this tree.
+     */
+    public void removeNode(Node<E> node) {
+        Node<E> rebalanceFrom;
+        if (node.mLeft != null && node.mRight != null) {
+            // Replace the node with its successor. Nodes are moved rather than their values so
+            // that handles held by callers remain valid.
+            Node<E> successor = node.mRight;
+            while (successor.mLeft != null) successor = successor.mLeft;
+
+            if (successor.mParent == node) {
+                rebalanceFrom = successor;
+            } else {
+                rebalanceFrom = successor.mParent;
+                rebalanceFrom.mLeft = successor.mRight;
+                if (successor.mRight != null) successor.mRight.mParent = rebalanceFrom;
+
+                successor.mRight = node.mRight;
+                successor.mRight.mParent = successor;
+            }
+
+            successor.mLeft = node.mLeft;
+            successor.mLeft.mParent = successor;
+            replaceInParent(node, successor);
+        } else {
+            rebalanceFrom = node.mParent;
+            replaceInParent(node, node.mLeft != null ? node.mLeft : node.mRight);
+        }
+
+        node.mParent = null;
+        node.mLeft = null;
+        node.mRight = null;
+
+        rebalance(rebalanceFrom);
+        modCount++;
+    }
+
+    /**
+     * Recompute subtree metadata from the given node up to the root, rotating wherever the tree has
+     * become unbalanced.
+     */
+    private void rebalance(Node<E> node) {
+        while (node != null) {
+            update(node);
+
+            int balance = height(node.mLeft) - height(node.mRight);
+            if (balance > 1) {
+                if (height(node.mLeft.mLeft) < height(node.mLeft.mRight)) {
+                    rotateLeft(node.mLeft);
+                }
+                node = rotateRight(node);
+            } else if (balance < -1) {
+                if (height(node.mRight.mRight) < height(node.mRight.mLeft)) {
+                    rotateRight(node.mRight);
+                }
+                node = rotateLeft(node);
+            }
+
+            node = node.mParent;
+        }
+    }
+
+    private Node<E> rotateLeft(Node<E> node) {
+        Node<E> pivot = node.mRight;
+
+        node.mRight = pivot.mLeft;
+        if (pivot.mLeft != null) pivot.mLeft.mParent = node;
+
+        replaceInParent(node, pivot);
+        pivot.mLeft = node;
+        node.mParent = pivot;
+
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private Node<E> rotateRight(Node<E> node) {
+        Node<E> pivot = node.mLeft;
+
+        node.mLeft = pivot.mRight;
+        if (pivot.mRight != null) pivot.mRight.mParent = node;
+
+        replaceInParent(node, pivot);
+        pivot.mRight = node;
+        node.mParent = pivot;
+
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void replaceInParent(Node<E> node, Node<E> replacement) {
+        Node<E> parent = node.mParent;
+        if (parent == null) {
+            mRoot = replacement;
+        } else if (parent.mLeft == node) {
+            parent.mLeft = replacement;
+        } else {
+            parent.mRight = replacement;
+        }
+
+        if (replacement != null) replacement.mParent = parent;
+    }
+
+    private static void update(Node<?> node) {
+        node.mHeight = 1 + Math.max(height(node.mLeft), height(node.mRight));
+        node.mSize = 1 + size(node.mLeft) + size(node.mRight);
+        node.mMarkedCount =
+                (node.mMarked ? 1 : 0) + markedCount(node.mLeft) + markedCount(node.mRight);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.mHeight;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.mSize;
+    }
+
+    private static int markedCount(Node<?> node) {
+        return node == null ? 0 : node.mMarkedCount;
+    }
+
+    /**
+     * A handle to an element in the tree.
+     */
+    static final class Node<E> {
+        private E mValue;
+        private Node<E> mLeft;
+        private Node<E> mRight;
+        private Node<E> mParent;
+        private int mHeight = 1;
+        private int mSize = 1;
+        private boolean mMarked;
+        private int mMarkedCount;
+
+        Node(E value) {
+            mValue = value;
+        }
+
+        public E getValue() {
+            return mValue;
+        }
+
+        public boolean isMarked() {
+            return mMarked;
+        }
+    }
+}
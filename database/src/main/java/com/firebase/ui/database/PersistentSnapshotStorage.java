@@ -0,0 +1,298 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/**
+ * A {@link SnapshotStorage} backed by a persistent treap, which can hand out its contents in O(1)
+ * through {@link #toImmutableList()}. Every change copies the O(log n) nodes on its path and shares
+ * the rest, so lists handed out earlier never change and can be read from any thread.
+ * <p>
+ * Like {@link TreeSnapshotStorage}, indexed reads, inserts, removals and key lookups are O(log n).
+ * Since persistent nodes can't point to their parent, key lookups search the treap by a label
+ * which each snapshot keeps for as long as it is in the storage. Labels are increasing along the
+ * list and are spread out again around an insert when there is no room left between them.
+ *
+ * @see ObservableSnapshotArray#snapshot()
+ */
+public class PersistentSnapshotStorage extends SnapshotStorage {
+    /** The distance between the labels of snapshots added at either end of the list. */
+    private static final long LABEL_GAP = 1L << 32;
+
+    private final Random mRandom = new Random();
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private Node mRoot;
+
+    @Override
+    public int getIndexForKey(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return -1;
+
+        int index = 0;
+        Node node = mRoot;
+        while (node.mEntry != entry) {
+            if (entry.mLabel < node.mEntry.mLabel) {
+                node = node.mLeft;
+            } else {
+                index += Node.size(node.mLeft) + 1;
+                node = node.mRight;
+            }
+        }
+        return index + Node.size(node.mLeft);
+    }
+
+    @Override
+    public DataSnapshot get(int index) {
+        checkIndex(index, size());
+        return Node.get(mRoot, index).mValue;
+    }
+
+    @Override
+    public int size() {
+        return Node.size(mRoot);
+    }
+
+    @Override
+    public DataSnapshot set(int index, DataSnapshot snapshot) {
+        checkIndex(index, size());
+        Node node = Node.get(mRoot, index);
+        if (!node.mValue.getKey().equals(snapshot.getKey())) {
+            mEntries.remove(node.mValue.getKey());
+            mEntries.put(snapshot.getKey(), node.mEntry);
+        }
+        mRoot = Node.set(mRoot, index, snapshot);
+
+        return node.mValue;
+    }
+
+    @Override
+    public void add(int index, DataSnapshot snapshot) {
+        checkIndex(index, size() + 1);
+        Entry entry = new Entry(getLabelForInsert(index), mRandom.nextInt());
+        mEntries.put(snapshot.getKey(), entry);
+
+        Node[] halves = Node.split(mRoot, index);
+        Node node = new Node(entry, snapshot, null, null);
+        mRoot = Node.merge(Node.merge(halves[0], node), halves[1]);
+        modCount++;
+    }
+
+    @Override
+    public DataSnapshot remove(int index) {
+        checkIndex(index, size());
+        Node[] halves = Node.split(mRoot, index);
+        Node[] removed = Node.split(halves[1], 1);
+        mRoot = Node.merge(halves[0], removed[1]);
+
+        DataSnapshot snapshot = removed[0].mValue;
+        mEntries.remove(snapshot.getKey());
+        modCount++;
+
+        return snapshot;
+    }
+
+    @Override
+    public void clear() {
+        mRoot = null;
+        mEntries.clear();
+        modCount++;
+    }
+
+    @NonNull
+    @Override
+    public List<DataSnapshot> toImmutableList() {
+        return new Version(mRoot);
+    }
+
+    /**
+     * @return a label between those of the snapshots before and at the given index, making room
+     * for it first if needed
+     */
+    private long getLabelForInsert(int index) {
+        int size = size();
+        if (size == 0) return Long.MAX_VALUE / 2;
+
+        long before = index == 0 ? 0 : getLabel(index - 1);
+        long after = index == size ? Long.MAX_VALUE : getLabel(index);
+        if (index == 0 && after - before > LABEL_GAP) return after - LABEL_GAP;
+        if (index == size && after - before > LABEL_GAP) return before + LABEL_GAP;
+        if (after - before > 1) return before + (after - before) / 2;
+
+        return relabel(index);
+    }
+
+    /**
+     * Spread out the labels of the smallest range of snapshots around the given index whose labels
+     * are sparse enough to leave a wide gap between each of them and a snapshot inserted at the
+     * index.
+     *
+     * @return the label of the snapshot to insert
+     */
+    private long relabel(int index) {
+        int size = size();
+        for (int radius = 1; ; radius *= 2) {
+            int start = Math.max(0, index - radius);
+            int end = Math.min(size, index + radius);
+            long before = start == 0 ? 0 : getLabel(start - 1);
+            long after = end == size ? Long.MAX_VALUE : getLabel(end);
+
+            // Leave a gap wide enough for as many inserts as there are snapshots in the range
+            long count = end - start + 1;
+            long step = (after - before) / (count + 1);
+            if (step <= count && (start > 0 || end < size)) continue;
+
+            for (int i = start; i < end; i++) {
+                long slot = i - start + (i < index ? 1 : 2);
+                Node.get(mRoot, i).mEntry.mLabel = before + slot * step;
+            }
+            return before + (index - start + 1) * step;
+        }
+    }
+
+    private long getLabel(int index) {
+        return Node.get(mRoot, index).mEntry.mLabel;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * The part of a snapshot's node which is shared by all of its copies. Versions handed out only
+     * read positions, so labels can be changed in place.
+     */
+    private static final class Entry {
+        private long mLabel;
+        private final int mPriority;
+
+        public Entry(long label, int priority) {
+            mLabel = label;
+            mPriority = priority;
+        }
+    }
+
+    /**
+     * An immutable treap node, ordered by position and heap ordered by priority.
+     */
+    private static final class Node {
+        private final Entry mEntry;
+        private final DataSnapshot mValue;
+        private final Node mLeft;
+        private final Node mRight;
+        private final int mSize;
+
+        public Node(Entry entry, DataSnapshot value, Node left, Node right) {
+            mEntry = entry;
+            mValue = value;
+            mLeft = left;
+            mRight = right;
+            mSize = size(left) + size(right) + 1;
+        }
+
+        public static int size(Node node) {
+            return node == null ? 0 : node.mSize;
+        }
+
+        public static Node get(Node node, int index) {
+            while (true) {
+                int leftSize = size(node.mLeft);
+                if (index < leftSize) {
+                    node = node.mLeft;
+                } else if (index > leftSize) {
+                    index -= leftSize + 1;
+                    node = node.mRight;
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        public static Node set(Node node, int index, DataSnapshot value) {
+            int leftSize = size(node.mLeft);
+            if (index < leftSize) {
+                return new Node(node.mEntry,
+                                node.mValue,
+                                set(node.mLeft, index, value),
+                                node.mRight);
+            } else if (index > leftSize) {
+                return new Node(node.mEntry,
+                                node.mValue,
+                                node.mLeft,
+                                set(node.mRight, index - leftSize - 1, value));
+            } else {
+                return new Node(node.mEntry, value, node.mLeft, node.mRight);
+            }
+        }
+
+        /**
+         * @return the first {@code index} nodes and the rest, as two new trees
+         */
+        public static Node[] split(Node node, int index) {
+            if (node == null) return new Node[2];
+
+            int leftSize = size(node.mLeft);
+            if (index <= leftSize) {
+                Node[] halves = split(node.mLeft, index);
+                halves[1] = new Node(node.mEntry, node.mValue, halves[1], node.mRight);
+                return halves;
+            } else {
+                Node[] halves = split(node.mRight, index - leftSize - 1);
+                halves[0] = new Node(node.mEntry, node.mValue, node.mLeft, halves[0]);
+                return halves;
+            }
+        }
+
+        /**
+         * @return a new tree with the nodes of {@code left} followed by those of {@code right}
+         */
+        public static Node merge(Node left, Node right) {
+            if (left == null) return right;
+            if (right == null) return left;
+
+            if (left.mEntry.mPriority > right.mEntry.mPriority) {
+                return new Node(left.mEntry,
+                                left.mValue,
+                                left.mLeft,
+                                merge(left.mRight, right));
+            } else {
+                return new Node(right.mEntry,
+                                right.mValue,
+                                merge(left, right.mLeft),
+                                right.mRight);
+            }
+        }
+    }
+
+    /**
+     * The contents of the storage at one point in time.
+     */
+    private static final class Version extends AbstractList<DataSnapshot>
+            implements RandomAccess {
+        private final Node mRoot;
+
+        public Version(Node root) {
+            mRoot = root;
+        }
+
+        @Override
+        public DataSnapshot get(int index) {
+            checkIndex(index, size());
+            return Node.get(mRoot, index).mValue;
+        }
+
+        @Override
+        public int size() {
+            return Node.size(mRoot);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.firebase.ui.database;
+
+/**
+ * A {@link ChangeEventListener} that can show placeholder rows. Listeners opt in by implementing
+ * this interface: a {@link FirebaseArray} with a {@link SnapshotDiskCache} only shows the rows it
+ * restored from disk while all of its listeners do. Until the query has loaded, {@link
+ * ObservableSnapshotArray#get(int)} returns null for those rows and events about them carry a null
+ * snapshot, but {@link ObservableSnapshotArray#getObject(int)}, {@link
+ * ObservableSnapshotArray#getKey(int)} and {@link ObservableSnapshotArray#getRef(int)} work as
+ * usual.
+ *
+ * @see ObservableSnapshotArray#isPlaceholder(int)
+ */
+public interface PlaceholderEventListener extends ChangeEventListener {
+}
@@ -0,0 +1,38 @@
+package com.firebase.ui.database;
+
+/**
+ * A {@link ChangeEventListener} that can also receive changes to a contiguous range of children in
+ * a single callback. Listeners opt into range events by implementing this interface: an {@link
+ * ObservableSnapshotArray} will then, for example, replay its existing contents, or a {@link
+ * FirebaseArray} send its initial load, as one {@link RangeEventType#RANGE_INSERTED} event instead
+ * of one {@link ChangeEventListener.EventType#ADDED} event per child. Plain {@link ChangeEventListener}s keep receiving the equivalent single-child
+ * events.
+ */
+public interface RangeChangeEventListener extends ChangeEventListener {
+    /**
+     * The type of event received when a range of children has been updated.
+     */
+    enum RangeEventType {
+        /**
+         * A range of children was inserted.
+         */
+        RANGE_INSERTED,
+        /**
+         * A range of children was removed.
+         */
+        RANGE_REMOVED,
+        /**
+         * A range of children was changed in place.
+         */
+        RANGE_CHANGED
+    }
+
+    /**
+     * A callback for when a range of children has changed in the array.
+     *
+     * @param type  The type of event received
+     * @param index The index of the first child in the range
+     * @param count The number of children in the range, always greater than 0
+     */
+    void onRangeChanged(RangeEventType type, int index, int count);
+}
@@ -0,0 +1,122 @@
+package com.firebase.ui.database;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A headless fragment retained across configuration changes that keeps {@link
+ * ObservableSnapshotArray}s, along with their parsed objects, listening until its activity is
+ * finished. An adapter created after a rotation then attaches to the already loaded array instead
+ * of downloading and parsing the whole list again.
+ * <p>
+ * Usage from an activity's {@code onCreate}:
+ * <pre>
+ * ObservableSnapshotArray&lt;Chat&gt; chats = RetainedSnapshotArrays.of(this).obtain(
+ *         "chats", new SnapshotArrayRegistry.Factory&lt;Chat&gt;() { ... });
+ * </pre>
+ * Adapters can keep calling {@code cleanup()} in {@code onDestroy}: the arrays only stop listening
+ * once the activity is destroyed for good.
+ */
+public class RetainedSnapshotArrays extends Fragment {
+    private static final String TAG = "RetainedSnapshotArrays";
+
+    private final Map<Object, ObservableSnapshotArray<?>> mArrays = new HashMap<>();
+    private final ChangeEventListener mKeepAliveListener = new KeepAliveListener();
+
+    /**
+     * Get the retained arrays of an activity, adding the fragment holding them if needed. Must be
+     * called before the activity's state is saved, usually in {@code onCreate}.
+     */
+    @NonNull
+    public static RetainedSnapshotArrays of(@NonNull FragmentActivity activity) {
+        FragmentManager fm = activity.getSupportFragmentManager();
+        Fragment fragment = fm.findFragmentByTag(TAG);
+        if (fragment instanceof RetainedSnapshotArrays) return (RetainedSnapshotArrays) fragment;
+
+        RetainedSnapshotArrays result = new RetainedSnapshotArrays();
+        // Commit synchronously so that later calls during the same onCreate find the fragment
+        fm.beginTransaction().add(result, TAG).disallowAddToBackStack().commitNow();
+        return result;
+    }
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    /**
+     * Get the array retained for the given key, creating it if needed. Every call for the same key
+     * must create arrays of the same type.
+     *
+     * @param key     identifies the array within the activity
+     * @param factory creates the array if none is retained for the key
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public <T> ObservableSnapshotArray<T> obtain(@NonNull Object key,
+                                                 @NonNull SnapshotArrayRegistry.Factory<T> factory) {
+        ObservableSnapshotArray<T> array = (ObservableSnapshotArray<T>) mArrays.get(key);
+        if (array == null) {
+            array = factory.create();
+            array.addChangeEventListener(mKeepAliveListener);
+            mArrays.put(key, array);
+        }
+        return array;
+    }
+
+    /**
+     * Stop retaining the array for the given key. It stops listening once its adapters are cleaned
+     * up.
+     */
+    public void remove(@NonNull Object key) {
+        ObservableSnapshotArray<?> array = mArrays.remove(key);
+        if (array != null) array.removeChangeEventListener(mKeepAliveListener);
+    }
+
+    /**
+     * Only called when the activity finishes, since this fragment is retained.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        for (ObservableSnapshotArray<?> array : mArrays.values()) {
+            array.removeChangeEventListener(mKeepAliveListener);
+        }
+        mArrays.clear();
+    }
+
+    /**
+     * Keeps retained arrays listening between adapters.
+     */
+    private static final class KeepAliveListener implements RangeChangeEventListener {
+        @Override
+        public void onChildChanged(EventType type,
+                                   DataSnapshot snapshot,
+                                   int index,
+                                   int oldIndex) {
+        }
+
+        @Override
+        public void onRangeChanged(RangeEventType type, int index, int count) {
+        }
+
+        @Override
+        public void onDataChanged() {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+        }
+    }
+}
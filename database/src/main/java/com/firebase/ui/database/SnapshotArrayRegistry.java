@@ -0,0 +1,174 @@
+package com.firebase.ui.database;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps {@link ObservableSnapshotArray}s alive for a while after their last listener is removed,
+ * so that an adapter created for the same data shortly after, for example when navigating back to
+ * a screen, gets the already loaded and parsed array instead of downloading it again.
+ * <p>
+ * Arrays are registered by key. A {@link DatabaseReference} can be used as its own key, but other
+ * {@link com.google.firebase.database.Query Queries} don't implement {@code equals()}, so use a
+ * string describing the query instead. The registry can only be used from the main thread.
+ */
+@MainThread
+public final class SnapshotArrayRegistry {
+    public static final long DEFAULT_LINGER_MILLIS = 10000;
+
+    private static SnapshotArrayRegistry sInstance;
+
+    private final Map<Object, Entry> mEntries = new HashMap<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mLingerMillis = DEFAULT_LINGER_MILLIS;
+
+    /**
+     * Creates the array for a key that isn't registered.
+     */
+    public interface Factory<T> {
+        @NonNull
+        ObservableSnapshotArray<T> create();
+    }
+
+    /**
+     * @return the registry shared by the whole process
+     */
+    @NonNull
+    public static SnapshotArrayRegistry getInstance() {
+        if (sInstance == null) sInstance = new SnapshotArrayRegistry();
+        return sInstance;
+    }
+
+    /**
+     * Set how long arrays keep listening after their last listener is removed. Defaults to {@link
+     * #DEFAULT_LINGER_MILLIS}.
+     *
+     * @param millis the linger period, or 0 to stop listening right away
+     */
+    public void setLingerMillis(long millis) {
+        mLingerMillis = millis;
+    }
+
+    /**
+     * Get the array registered for the given key, creating and registering it if needed. Every
+     * call for the same key must create arrays of the same type.
+     *
+     * @param key     identifies the array's data, for example its {@link DatabaseReference}
+     * @param factory creates the array if none is registered for the key
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public <T> ObservableSnapshotArray<T> obtain(@NonNull Object key,
+                                                 @NonNull Factory<T> factory) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, factory.create());
+            mEntries.put(key, entry);
+            entry.mArray.setLastListenerRemovedCallback(entry);
+        }
+        return (ObservableSnapshotArray<T>) entry.mArray;
+    }
+
+    /**
+     * Unregister the array for the given key. If it is lingering, it stops listening right away.
+     */
+    public void evict(@NonNull Object key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) entry.release();
+    }
+
+    /**
+     * Unregister every array, stopping those that are lingering.
+     */
+    public void evictAll() {
+        for (Object key : mEntries.keySet().toArray()) {
+            evict(key);
+        }
+    }
+
+    /**
+     * Keeps a registered array listening while it lingers.
+     */
+    private final class Entry implements Runnable, ChangeEventListener {
+        private final Object mKey;
+        private final ObservableSnapshotArray<?> mArray;
+        private final Runnable mExpiry = new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        };
+        private boolean mIsLingering;
+
+        public Entry(Object key, ObservableSnapshotArray<?> array) {
+            mKey = key;
+            mArray = array;
+        }
+
+        /**
+         * Called when the array's last listener has been removed.
+         */
+        @Override
+        public void run() {
+            if (mIsLingering || mLingerMillis <= 0) {
+                // Let the array stop listening
+                if (mEntries.get(mKey) == this) mEntries.remove(mKey);
+                mArray.setLastListenerRemovedCallback(null);
+                return;
+            }
+
+            mIsLingering = true;
+            mArray.addKeepAliveListener(this);
+            mHandler.postDelayed(mExpiry, mLingerMillis);
+        }
+
+        /**
+         * Stop lingering. If an adapter attached to the array in the meantime, it stays registered
+         * and lingers again once its listeners are gone.
+         */
+        public void expire() {
+            mHandler.removeCallbacks(mExpiry);
+            if (!mIsLingering) return;
+
+            // Unregisters the array through run() if it has no other listener
+            mArray.removeChangeEventListener(this);
+            mIsLingering = false;
+        }
+
+        /**
+         * Stop lingering and never linger again.
+         */
+        public void release() {
+            mArray.setLastListenerRemovedCallback(null);
+            mHandler.removeCallbacks(mExpiry);
+            if (mIsLingering) {
+                mIsLingering = false;
+                mArray.removeChangeEventListener(this);
+            }
+        }
+
+        @Override
+        public void onChildChanged(EventType type,
+                                   DataSnapshot snapshot,
+                                   int index,
+                                   int oldIndex) {
+        }
+
+        @Override
+        public void onDataChanged() {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The contents of an {@link ObservableSnapshotArray} at one point in time. Unlike the array itself,
+ * a version never changes and can be read from any thread, for example to export, search or
+ * aggregate the list in the background while new events keep arriving.
+ *
+ * @see ObservableSnapshotArray#snapshot()
+ */
+public final class SnapshotArrayVersion extends AbstractList<DataSnapshot>
+        implements RandomAccess {
+    private final long mVersion;
+    private final List<DataSnapshot> mSnapshots;
+
+    SnapshotArrayVersion(long version, @NonNull List<DataSnapshot> snapshots) {
+        mVersion = version;
+        mSnapshots = snapshots;
+    }
+
+    /**
+     * @return the number of changes made to the array's snapshots when this version was taken,
+     * which tells whether two versions of the same array were taken without a change in between.
+     * Changes which send no event, such as conflated or equivalent updates, are counted too.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    @Override
+    public DataSnapshot get(int index) {
+        return mSnapshots.get(index);
+    }
+
+    @Override
+    public int size() {
+        return mSnapshots.size();
+    }
+}
@@ -0,0 +1,288 @@
+package com.firebase.ui.database;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores the last known parsed contents of a {@link FirebaseArray} on disk so that the list can be
+ * shown as soon as it is created on the next cold start, before the database has delivered any
+ * data. Objects are stored in a compact binary format written by an {@link ObjectCodec}, together
+ * with a fingerprint of their snapshot's value which tells whether they are still up to date.
+ * <p>
+ * Snapshots are parsed, encoded and written in the background, and files are read synchronously
+ * when the array starts listening.
+ * Changing the codec's format requires a different file, or a call to {@link #clear()}: a file
+ * which can't be read is discarded, but one read with the wrong codec may not be detected.
+ *
+ * @param <T> the type of the stored objects
+ * @see FirebaseArray#setDiskCache(SnapshotDiskCache)
+ */
+public final class SnapshotDiskCache<T> {
+    private static final String TAG = "SnapshotDiskCache";
+    private static final String DIRECTORY = "firebaseui-database";
+    private static final int MAGIC = 0x46554944;
+    private static final int VERSION = 2;
+
+    /** Writes files one at a time, so that a later write can't be overtaken by an earlier one. */
+    private static final Executor WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final File mFile;
+    private final ObjectCodec<T> mCodec;
+
+    /**
+     * Create a cache stored in the app's cache directory and keyed by the path of the query's
+     * location. Queries on the same location which select different children, for example with
+     * {@code limitToLast()}, must use {@link #SnapshotDiskCache(File, ObjectCodec)} with distinct
+     * files instead.
+     */
+    public SnapshotDiskCache(@NonNull Context context,
+                             @NonNull Query query,
+                             @NonNull ObjectCodec<T> codec) {
+        this(new File(new File(context.getCacheDir(), DIRECTORY),
+                      getFileName(query.getRef().toString())),
+             codec);
+    }
+
+    /**
+     * Create a cache stored in the given file.
+     */
+    public SnapshotDiskCache(@NonNull File file, @NonNull ObjectCodec<T> codec) {
+        mFile = Preconditions.checkNotNull(file);
+        mCodec = Preconditions.checkNotNull(codec);
+    }
+
+    private static String getFileName(String path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(path.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Delete the stored contents, for example when the user signs out.
+     */
+    public void clear() {
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFile.delete();
+            }
+        });
+    }
+
+    /**
+     * Read the stored rows by key, in the order they were written.
+     *
+     * @return the stored rows, empty if there are none or they can't be read
+     */
+    @NonNull
+    Map<String, Row<T>> read() {
+        Map<String, Row<T>> rows = new LinkedHashMap<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown format");
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long fingerprint = in.readLong();
+                rows.put(key, new Row<>(mCodec.read(in), fingerprint));
+            }
+            return rows;
+        } catch (FileNotFoundException e) {
+            return rows;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable cache " + mFile, e);
+            clear();
+            rows.clear();
+            return rows;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Parse, encode and write the given snapshots in the background.
+     *
+     * @param snapshots an immutable list of the snapshots to store, in order
+     * @param parser    the parser of the array, called on the background thread
+     */
+    void write(final List<DataSnapshot> snapshots, final SnapshotParser<T> parser) {
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ByteArrayOutputStream bytes = encode(snapshots, parser);
+                if (bytes != null) writeFile(bytes);
+            }
+        });
+    }
+
+    private ByteArrayOutputStream encode(List<DataSnapshot> snapshots, SnapshotParser<T> parser) {
+        List<DataSnapshot> stored = new ArrayList<>(snapshots.size());
+        List<T> objects = new ArrayList<>(snapshots.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (DataSnapshot snapshot : snapshots) {
+                T object = parser.parseSnapshot(snapshot);
+                if (object == null) continue;
+
+                stored.add(snapshot);
+                objects.add(object);
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stored.size());
+            for (int i = 0; i < stored.size(); i++) {
+                out.writeUTF(stored.get(i).getKey());
+                out.writeLong(fingerprint(stored.get(i)));
+                mCodec.write(objects.get(i), out);
+            }
+            out.flush();
+            return bytes;
+        } catch (IOException | RuntimeException e) {
+            // ByteArrayOutputStream doesn't throw, so this can only come from the parser or codec
+            Log.w(TAG, "Failed to encode cache " + mFile, e);
+            return null;
+        }
+    }
+
+    private void writeFile(ByteArrayOutputStream bytes) {
+        // Write to a temporary file first so that a crash can't leave a truncated cache behind
+        File temp = new File(mFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            File directory = mFile.getParentFile();
+            if (directory != null) directory.mkdirs();
+
+            out = new FileOutputStream(temp);
+            bytes.writeTo(out);
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(mFile)) throw new IOException("Failed to rename " + temp);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cache " + mFile, e);
+            temp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * @return a hash of the snapshot's value, including priorities, which changes whenever the
+     * value does. Comparing it with a stored row tells whether the row is up to date without
+     * parsing the snapshot.
+     */
+    static long fingerprint(DataSnapshot snapshot) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            update(digest, snapshot.getValue(true));
+
+            long fingerprint = 0;
+            byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++) {
+                fingerprint = (fingerprint << 8) | (hash[i] & 0xFF);
+            }
+            return fingerprint;
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, Object value) throws IOException {
+        if (value instanceof Map) {
+            // Children are hashed in key order since the map's order isn't defined
+            Map<?, ?> children = (Map<?, ?>) value;
+            List<String> keys = new ArrayList<>(children.size());
+            for (Object key : children.keySet()) {
+                keys.add(String.valueOf(key));
+            }
+            Collections.sort(keys);
+
+            digest.update((byte) '{');
+            for (String key : keys) {
+                update(digest, key);
+                update(digest, children.get(key));
+            }
+            digest.update((byte) '}');
+        } else if (value instanceof List) {
+            digest.update((byte) '[');
+            for (Object child : (List<?>) value) {
+                update(digest, child);
+            }
+            digest.update((byte) ']');
+        } else if (value == null) {
+            digest.update((byte) 'n');
+        } else {
+            // The type tells apart values with the same text, such as "1" and 1
+            byte[] text = (value.getClass().getName() + ':' + value).getBytes("UTF-8");
+            digest.update((byte) 'v');
+            digest.update(new byte[]{
+                    (byte) (text.length >> 24),
+                    (byte) (text.length >> 16),
+                    (byte) (text.length >> 8),
+                    (byte) text.length});
+            digest.update(text);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing left to do
+        }
+    }
+
+    /**
+     * A row read back from the cache.
+     */
+    static final class Row<T> {
+        final T mObject;
+        /** The {@link #fingerprint(DataSnapshot)} of the snapshot the object was parsed from. */
+        final long mFingerprint;
+
+        Row(T object, long fingerprint) {
+            mObject = object;
+            mFingerprint = fingerprint;
+        }
+    }
+}
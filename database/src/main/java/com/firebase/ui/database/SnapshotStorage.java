@@ -0,0 +1,36 @@
+package com.firebase.ui.database;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The backing list of an {@link ObservableSnapshotArray}. Besides the usual {@link java.util.List}
+ * operations, a storage must be able to find the index of a snapshot by its key since every child
+ * event is addressed that way.
+ * <p>
+ * Two implementations are provided: {@link ArraySnapshotStorage}, the default, which is the
+ * fastest choice for small to medium sized lists, and {@link TreeSnapshotStorage} which keeps
+ * indexed inserts, removals and moves logarithmic for very large lists. {@link
+ * PersistentSnapshotStorage} additionally hands out immutable copies of itself in O(1).
+ */
+public abstract class SnapshotStorage extends AbstractList<DataSnapshot> {
+    /**
+     * @return the index of the snapshot with the given key or -1 if there isn't one
+     */
+    public abstract int getIndexForKey(String key);
+
+    /**
+     * @return an immutable list of the current snapshots which is safe to read from any thread. The
+     * default implementation copies the whole storage.
+     */
+    @NonNull
+    public List<DataSnapshot> toImmutableList() {
+        return Collections.unmodifiableList(new ArrayList<>(this));
+    }
+}
@@ -0,0 +1,88 @@
+package com.firebase.ui.database;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseException;
+
+/**
+ * Value conversions used by the {@link SnapshotParser}s generated for {@link FirebaseModel}
+ * classes. Conversions follow the rules of {@link DataSnapshot#getValue(Class)}.
+ */
+public final class SnapshotValues {
+    private SnapshotValues() {
+        throw new AssertionError("No instance for you!");
+    }
+
+    /**
+     * Ensure the given snapshot can be converted to a model class, i.e. that it isn't a primitive.
+     */
+    public static void checkIsModel(DataSnapshot snapshot, Class<?> modelClass) {
+        if (!snapshot.hasChildren()) {
+            throw failedConversion(snapshot.getValue(), modelClass.getName());
+        }
+    }
+
+    public static String toString(Object value) {
+        if (value == null || value instanceof String) return (String) value;
+        throw failedConversion(value, "String");
+    }
+
+    public static Boolean toBoolean(Object value) {
+        if (value == null || value instanceof Boolean) return (Boolean) value;
+        throw failedConversion(value, "boolean");
+    }
+
+    public static Integer toInteger(Object value) {
+        if (value == null || value instanceof Integer) return (Integer) value;
+        if (value instanceof Long || value instanceof Double) {
+            double number = ((Number) value).doubleValue();
+            if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+                return ((Number) value).intValue();
+            }
+            throw new DatabaseException("Numeric value out of 32-bit integer range: " + number
+                    + ". Did you mean to use a long or double instead of an int?");
+        }
+        throw failedConversion(value, "int");
+    }
+
+    public static Long toLong(Object value) {
+        if (value == null || value instanceof Long) return (Long) value;
+        if (value instanceof Integer) return ((Integer) value).longValue();
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (number >= Long.MIN_VALUE && number <= Long.MAX_VALUE) return (long) number;
+            throw new DatabaseException("Numeric value out of 64-bit long range: " + number
+                    + ". Did you mean to use a double instead of a long?");
+        }
+        throw failedConversion(value, "long");
+    }
+
+    public static Double toDouble(Object value) {
+        if (value == null || value instanceof Double) return (Double) value;
+        if (value instanceof Integer || value instanceof Long) {
+            return ((Number) value).doubleValue();
+        }
+        throw failedConversion(value, "double");
+    }
+
+    public static Float toFloat(Object value) {
+        Double number = toDouble(value);
+        return number == null ? null : number.floatValue();
+    }
+
+    public static <E extends Enum<E>> E toEnum(Object value, Class<E> enumClass) {
+        if (value == null) return null;
+        if (!(value instanceof String)) throw failedConversion(value, enumClass.getName());
+
+        try {
+            return Enum.valueOf(enumClass, (String) value);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseException("Could not find enum value of "
+                    + enumClass.getName() + " for value \"" + value + "\"");
+        }
+    }
+
+    private static DatabaseException failedConversion(Object value, String type) {
+        return new DatabaseException("Failed to convert value of type "
+                + value.getClass().getName() + " to " + type);
+    }
+}
@@ -0,0 +1,64 @@
+package com.firebase.ui.database;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SnapshotStorage} backed by a balanced order-statistic tree. Indexed reads, inserts,
+ * removals and key lookups are all O(log n) which, unlike {@link ArraySnapshotStorage}, doesn't
+ * degrade with the size of the list when children are inserted or moved in the middle of it.
+ */
+public class TreeSnapshotStorage extends SnapshotStorage {
+    private final OrderStatisticTree<DataSnapshot> mTree = new OrderStatisticTree<>();
+    private final Map<String, OrderStatisticTree.Node<DataSnapshot>> mNodes = new HashMap<>();
+
+    @Override
+    public int getIndexForKey(String key) {
+        OrderStatisticTree.Node<DataSnapshot> node = mNodes.get(key);
+        return node == null ? -1 : mTree.indexOf(node);
+    }
+
+    @Override
+    public DataSnapshot get(int index) {
+        return mTree.get(index);
+    }
+
+    @Override
+    public int size() {
+        return mTree.size();
+    }
+
+    @Override
+    public DataSnapshot set(int index, DataSnapshot snapshot) {
+        DataSnapshot old = mTree.set(index, snapshot);
+        if (!old.getKey().equals(snapshot.getKey())) {
+            mNodes.put(snapshot.getKey(), mNodes.remove(old.getKey()));
+        }
+
+        return old;
+    }
+
+    @Override
+    public void add(int index, DataSnapshot snapshot) {
+        mNodes.put(snapshot.getKey(), mTree.insertNode(index, snapshot));
+        modCount++;
+    }
+
+    @Override
+    public DataSnapshot remove(int index) {
+        DataSnapshot snapshot = mTree.remove(index);
+        mNodes.remove(snapshot.getKey());
+        modCount++;
+
+        return snapshot;
+    }
+
+    @Override
+    public void clear() {
+        mTree.clear();
+        mNodes.clear();
+        modCount++;
+    }
+}